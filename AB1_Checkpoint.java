@@ -0,0 +1,291 @@
+/*
+ * This file implements training checkpoints for AB1_Net: periodic snapshots of the weights, the optimizer
+ * state, the iteration count and the average error, written on a background thread so the training loop
+ * never waits on the disk, and a resume function that continues training from the latest snapshot.
+ *
+ * File layout (all values little-endian):
+ *    int      magic: MAGIC, the bytes "AB1C"
+ *    int      version: VERSION
+ *    int      iteration: number of iterations finished when the snapshot was taken
+ *    int      step: number of mini-batches the optimizer had taken
+ *    double   avgErr: average error of the last iteration
+ *    int      nState: number of optimizer state arrays
+ *    int      nLayers: number of layers, 3 for an A-B-1 network
+ *    int[]    numActs: number of activations in each of the 3 layers
+ *    int      optimizer: the optimizer's type (AB1_Optimizer.SGD, MOMENTUM, RMSPROP or ADAM), which also
+ *             pads the header so the weights start 8-byte aligned
+ *    double[] weights1, weights2: laid out as in AB1_Net
+ *    double[] state: the optimizer's nState state arrays, in the order returned by AB1_Optimizer.state
+ *
+ * A snapshot is taken between iterations, on the training thread, by copying the weights and optimizer
+ * state into a single reusable buffer. The writer thread then writes the buffer to a temporary file, forces
+ * it to disk and renames it over the checkpoint file, so the checkpoint file always holds a complete
+ * snapshot even if the process dies mid-write. If the writer is still busy with the previous snapshot
+ * when the next one is due, that snapshot is skipped rather than blocking training.
+ *
+ * The validator's state is not saved: a resumed run starts early stopping over, with no best weights and
+ * its patience reset, so it can't stop early before it has scored patience more snapshots.
+ *
+ * Methods:
+ *    AB1_Checkpoint: sizes the snapshot buffer for a network and starts the writer thread.
+ *    offer: takes a snapshot of a network and queues it for writing, unless a write is in progress.
+ *    finish: waits for the writer, writes a final snapshot and stops the writer thread.
+ *    write: writes the snapshot buffer to the checkpoint file, on the writer thread.
+ *    resume: restores a network's weights, optimizer state, iteration and error from a checkpoint file.
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AB1_Checkpoint
+{
+   /*
+    * MAGIC: first four bytes of every file, "AB1C".
+    * VERSION: current version of the file layout.
+    * HEADER_SIZE: size in bytes of the header of a 3 layer network.
+    */
+   static final int MAGIC = 0x43314241;
+   static final int VERSION = 2;
+   static final int HEADER_SIZE = 48;
+
+   /*
+    * path: the checkpoint file.
+    * temp: file each snapshot is written to before it is renamed over path.
+    * buf: the snapshot being written, reused for every snapshot.
+    * busy: true from the moment a snapshot is taken until the writer has finished writing it.
+    * writer: the single background thread that writes snapshots.
+    * pending: the latest write handed to the writer, or null if there has been none. Only used on the
+    *    training thread.
+    * written: number of snapshots written.
+    * skipped: number of snapshots skipped because the writer was still busy.
+    * failure: error from the last write that failed, rethrown by finish.
+    */
+   final Path path, temp;
+   final ByteBuffer buf;
+   final AtomicBoolean busy = new AtomicBoolean();
+   final ExecutorService writer;
+   Future<?> pending;
+   volatile int written, skipped;
+   volatile IOException failure;
+
+   /*
+    * Sizes the snapshot buffer for net, which must already be allocated for training, and starts the
+    *    writer thread.
+    *
+    * @param path: checkpoint file to write
+    * @param net: network that will be checkpointed
+    */
+   public AB1_Checkpoint(String path, AB1_Net net)
+   {
+      int doubles = net.weights1.length + net.weights2.length;
+
+      for (double[] array : net.optimizer.state())
+      {
+         doubles += array.length;
+      }
+
+      this.path = Paths.get(path);
+      this.temp = Paths.get(path + ".tmp");
+      buf = ByteBuffer.allocate(HEADER_SIZE + 8 * doubles).order(ByteOrder.LITTLE_ENDIAN);
+
+      writer = Executors.newSingleThreadExecutor(task ->
+      {
+         Thread thread = new Thread(task, "AB1_Checkpoint writer");
+         thread.setDaemon(true);
+         return thread;
+      });
+   } // public AB1_Checkpoint(String path, AB1_Net net)
+
+   /*
+    * Takes a snapshot of net and hands it to the writer thread. Must be called on the training thread
+    *    between iterations, while the weights aren't changing.
+    *
+    * @param net: network to snapshot
+    *
+    * @return true if the snapshot was queued, false if it was skipped because a write is in progress
+    */
+   public boolean offer(AB1_Net net)
+   {
+      if (!busy.compareAndSet(false, true))
+      {
+         skipped++;
+         return false;
+      }
+
+      double[][] state = net.optimizer.state();
+      DoubleBuffer doubles;
+
+      buf.clear();
+      buf.putInt(MAGIC).putInt(VERSION).putInt(net.iteration).putInt(net.optimizer.step);
+      buf.putDouble(net.avgErr).putInt(state.length).putInt(net.numActs.length);
+      for (int layer = 0; layer < net.numActs.length; layer++)
+      {
+         buf.putInt(net.numActs[layer]);
+      }
+      buf.putInt(net.optimizer.type());
+
+      buf.position(HEADER_SIZE);
+      doubles = buf.asDoubleBuffer();
+      doubles.put(net.weights1).put(net.weights2);
+      for (double[] array : state)
+      {
+         doubles.put(array);
+      }
+      buf.position(0);
+
+      pending = writer.submit(this::write);
+      return true;
+   } // public boolean offer(AB1_Net net)
+
+   /*
+    * Waits for any write in progress, writes a final snapshot of net and stops the writer thread.
+    *
+    * @param net: network to snapshot
+    */
+   public void finish(AB1_Net net) throws IOException
+   {
+      try
+      {
+         if (pending != null)
+         {
+            pending.get();
+         }
+
+         offer(net);
+         writer.shutdown();
+         writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IOException("interrupted while writing the final checkpoint", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IOException("writing a checkpoint failed", e.getCause());
+      }
+
+      if (failure != null)
+      {
+         throw failure;
+      }
+   } // public void finish(AB1_Net net)
+
+   /*
+    * Writes the snapshot buffer to the temporary file, forces it to disk and renames it over the
+    *    checkpoint file. Runs on the writer thread.
+    */
+   void write()
+   {
+      try
+      {
+         try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+               StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+         {
+            while (buf.hasRemaining())
+            {
+               channel.write(buf);
+            }
+            channel.force(false);
+         }
+
+         Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         written++;
+      }
+      catch (IOException e)
+      {
+         failure = e;
+      }
+      finally
+      {
+         busy.set(false);
+      }
+   } // void write()
+
+   /*
+    * Restores the weights, optimizer state, iteration count and average error saved in a checkpoint file.
+    *    net must already be allocated for training with the same configuration and the same kind of
+    *    optimizer. Training continues from the checkpoint's iteration on the next call to train; early
+    *    stopping starts over, since the validator's state isn't saved.
+    *
+    * @param path: checkpoint file to read
+    * @param net: network to restore
+    */
+   public static void resume(String path, AB1_Net net) throws IOException
+   {
+      MappedByteBuffer file;
+      int[] numActs = new int[3];
+      double[][] state = net.optimizer.state();
+      long expected = HEADER_SIZE + 8L * (net.weights1.length + net.weights2.length);
+      DoubleBuffer doubles;
+
+      try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+      {
+         file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      file.order(ByteOrder.LITTLE_ENDIAN);
+
+      if (file.limit() < HEADER_SIZE || file.getInt(0) != MAGIC || file.getInt(4) != VERSION)
+      {
+         throw new IOException(path + " is not a version " + VERSION + " AB1 checkpoint");
+      }
+
+      for (int layer = 0; layer < 3; layer++)
+      {
+         numActs[layer] = file.getInt(32 + 4 * layer);
+      }
+
+      if (file.getInt(28) != 3 || !Arrays.equals(numActs, net.numActs))
+      {
+         throw new IOException(path + " holds a " + Arrays.toString(numActs) + " network, expected " +
+               Arrays.toString(net.numActs));
+      }
+      if (file.getInt(44) != net.optimizer.type())
+      {
+         throw new IOException(path + " was written with optimizer type " + file.getInt(44) + ", but " +
+               net.optimizer + " has type " + net.optimizer.type());
+      }
+      if (file.getInt(24) != state.length)
+      {
+         throw new IOException(path + " has " + file.getInt(24) + " optimizer state arrays, but " +
+               net.optimizer + " has " + state.length);
+      }
+
+      for (double[] array : state)
+      {
+         expected += 8L * array.length;
+      }
+      if (file.limit() != expected)
+      {
+         throw new IOException(path + " is " + file.limit() + " bytes, expected " + expected);
+      }
+
+      file.position(HEADER_SIZE);
+      doubles = file.asDoubleBuffer();
+      doubles.get(net.weights1).get(net.weights2);
+      for (double[] array : state)
+      {
+         doubles.get(array);
+      }
+
+      net.startIteration = file.getInt(8);
+      net.optimizer.step = file.getInt(12);
+      net.avgErr = file.getDouble(16);
+   } // public static void resume(String path, AB1_Net net)
+
+} // public class AB1_Checkpoint
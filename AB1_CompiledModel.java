@@ -0,0 +1,435 @@
+/*
+ * This file implements a compiler that turns the weights of an A-B-1 network into a class of its own.
+ * compile writes the bytecode of a subclass of AB1_CompiledModel whose run method is one straight line of
+ * code: every loop over the layers is unrolled, every weight is a constant in the class's constant pool,
+ * and every input is read at a constant index. The class is loaded as a hidden class through
+ * MethodHandles.Lookup.defineHiddenClass, so the JIT compiles each model to straight-line machine code
+ * with the weights folded in, and the class is unloaded once the model is no longer referenced.
+ *
+ * The generated run keeps the output's theta on the operand stack and adds each hidden node's
+ * contribution to it as soon as the node is activated, so it needs no locals or arrays besides the input:
+ *
+ *    dconst_0                                    output theta
+ *    for each hidden node j:
+ *       dconst_0                                 hidden theta
+ *       for each input k:
+ *          aload_1, push k, daload               input[k]
+ *          ldc2_w weights1[j * A + k], dmul, dadd
+ *       invokestatic AB1_Net.sigmoid
+ *       ldc2_w weights2[j], dmul, dadd
+ *    invokestatic AB1_Net.sigmoid, dreturn
+ *
+ * A model compiled for a network with useTableSigmoid set calls AB1_Net.tableSigmoid instead, so it
+ * predicts what the network itself does. The sums are accumulated in the same order as the scalar loop
+ * in AB1_Net.dot, so a model compiled with the exact sigmoid gives exactly the same predictions as
+ * AB1_Model with the Vector API kernel turned off. Terms whose weight is
+ * zero are left out, which doesn't change any sum for finite inputs. The code has no branches, so the
+ * class needs no StackMapTable.
+ *
+ * Each weight takes about eleven bytes of bytecode, and HotSpot never JIT-compiles a method longer than
+ * 8000 bytes (-XX:HugeMethodLimit), leaving it to the interpreter, which runs it several times slower than
+ * AB1_Model's loops. compile therefore only accepts networks with at most MAX_WEIGHTS weights, which keeps
+ * run under that limit. Larger networks should use AB1_Model.
+ *
+ * Like AB1_Model, a compiled model never changes after it is created and keeps no scratch space, so any
+ * number of threads can share one.
+ *
+ * Methods:
+ *    AB1_CompiledModel: constructor called by the generated subclass.
+ *    run: runs the model on one input.
+ *    compile: generates, loads and instantiates the class for a configuration and its weights.
+ *    generate: writes the classfile of the generated class.
+ *    writeMethod: writes a method with its Code attribute.
+ *    writeRun: writes the bytecode of the generated run method.
+ *    pushIndex: writes the shortest instruction that pushes an array index.
+ *    ConstantPool: collects the constants of the generated class and assigns them indices.
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+public abstract class AB1_CompiledModel
+{
+   /*
+    * MAX_WEIGHTS: largest number of weights compile accepts, so that run stays under 8000 bytes.
+    * CLASSFILE_VERSION: major version of the generated classfile. Since run has no branches, any version
+    *    the running JVM accepts would do. 61 is Java 17's, the first long-term-support release with
+    *    defineHiddenClass (added in Java 15); it is a choice, and older versions would load as well.
+    * NAME, SUPER: internal names of the generated class and of this class.
+    */
+   public static final int MAX_WEIGHTS = 512;
+
+   static final int CLASSFILE_VERSION = 61;
+   static final String NAME = "AB1_CompiledModel$Generated";
+   static final String SUPER = "AB1_CompiledModel";
+
+   /*
+    * Bytecode instructions used by the generated class.
+    */
+   static final int ICONST_0 = 0x03, DCONST_0 = 0x0e, BIPUSH = 0x10, SIPUSH = 0x11, LDC2_W = 0x14;
+   static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, DALOAD = 0x31, DADD = 0x63, DMUL = 0x6b;
+   static final int DRETURN = 0xaf, RETURN = 0xb1, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+   static final int ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+   /*
+    * Called by the generated subclass. Models are only created by compile.
+    */
+   protected AB1_CompiledModel()
+   {
+   }
+
+   /*
+    * Runs the model on one input.
+    *
+    * @param input: data for model to make predictions on, with at least as many values as the model has
+    *    inputs
+    *
+    * @return prediction
+    */
+   public abstract double run(double[] input);
+
+   /*
+    * Compiles a configuration and its weights into a new class and returns an instance of it. The weights
+    *    are copied into the class as constants, so later changes to the arrays do not affect the model.
+    *
+    * @param numActs: configuration number of activations in each layer
+    * @param weights1: flat weights between input and hidden activations
+    * @param weights2: flat weights between hidden and output activations
+    * @param useTableSigmoid: whether the model activates with AB1_Net.tableSigmoid instead of sigmoid
+    *
+    * @return the compiled model
+    *
+    * @throws IllegalArgumentException if the network has more than MAX_WEIGHTS weights
+    */
+   public static AB1_CompiledModel compile(int[] numActs, double[] weights1, double[] weights2,
+         boolean useTableSigmoid)
+   {
+      if (weights1.length + weights2.length > MAX_WEIGHTS)
+      {
+         throw new IllegalArgumentException("a " + numActs[0] + "-" + numActs[1] + "-" + numActs[2] +
+               " network has " + (weights1.length + weights2.length) + " weights, more than the " +
+               MAX_WEIGHTS + " that can be compiled");
+      }
+
+      try
+      {
+         MethodHandles.Lookup generated = MethodHandles.lookup().defineHiddenClass(
+               generate(numActs, weights1, weights2, useTableSigmoid), true);
+         return (AB1_CompiledModel) generated.findConstructor(generated.lookupClass(),
+               MethodType.methodType(void.class)).invoke();
+      }
+      catch (Throwable t)
+      {
+         throw new RuntimeException(t);
+      }
+   } // public static AB1_CompiledModel compile(int[] numActs, double[] weights1, double[] weights2, ...)
+
+   /*
+    * Writes the classfile of a final subclass of AB1_CompiledModel with a constructor that only calls
+    *    super() and a run method for the given weights.
+    *
+    * @param numActs: configuration number of activations in each layer
+    * @param weights1: flat weights between input and hidden activations
+    * @param weights2: flat weights between hidden and output activations
+    * @param useTableSigmoid: whether run calls AB1_Net.tableSigmoid instead of sigmoid
+    *
+    * @return the classfile
+    */
+   static byte[] generate(int[] numActs, double[] weights1, double[] weights2, boolean useTableSigmoid)
+         throws IOException
+   {
+      ConstantPool pool = new ConstantPool();
+      int thisClass = pool.classRef(NAME);
+      int superClass = pool.classRef(SUPER);
+      int superInit = pool.methodRef(SUPER, "<init>", "()V");
+      int init = pool.utf8("<init>");
+      int initType = pool.utf8("()V");
+      int run = pool.utf8("run");
+      int runType = pool.utf8("([D)D");
+      int codeAttribute = pool.utf8("Code");
+
+      byte[] initCode = {(byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (superInit >> 8), (byte) superInit,
+            (byte) RETURN};
+      byte[] runCode = writeRun(pool, numActs, weights1, weights2, useTableSigmoid);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);                       // minor version
+      out.writeShort(CLASSFILE_VERSION);
+      pool.writeTo(out);
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0);                       // interfaces
+      out.writeShort(0);                       // fields
+      out.writeShort(2);                       // methods
+
+      writeMethod(out, init, initType, codeAttribute, 1, 1, initCode);
+      writeMethod(out, run, runType, codeAttribute, 8, 2, runCode);
+
+      out.writeShort(0);                       // class attributes
+      out.flush();
+      return bytes.toByteArray();
+   } // static byte[] generate(int[] numActs, double[] weights1, double[] weights2, ...)
+
+   /*
+    * Writes a public method whose only attribute is its Code attribute, with no exception table.
+    *
+    * @param out: stream the classfile is being written to
+    * @param name, type: constant pool indices of the method's name and descriptor
+    * @param codeAttribute: constant pool index of "Code"
+    * @param maxStack: largest number of operand stack slots the code uses
+    * @param maxLocals: number of local variable slots, including this and the parameters
+    * @param code: the method's bytecode
+    */
+   static void writeMethod(DataOutputStream out, int name, int type, int codeAttribute, int maxStack,
+         int maxLocals, byte[] code) throws IOException
+   {
+      out.writeShort(ACC_PUBLIC);
+      out.writeShort(name);
+      out.writeShort(type);
+      out.writeShort(1);                       // attributes
+
+      out.writeShort(codeAttribute);
+      out.writeInt(12 + code.length);          // max_stack through attributes_count, plus the code
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(code.length);
+      out.write(code);
+      out.writeShort(0);                       // exception table
+      out.writeShort(0);                       // code attributes
+   } // static void writeMethod(DataOutputStream out, int name, int type, int codeAttribute, ...)
+
+   /*
+    * Writes the bytecode of run, laid out as in the comment at the top of this file. At most four doubles
+    *    are on the operand stack at once: the output's theta, a hidden node's theta, an input and a
+    *    weight, so the method needs 8 stack slots and 2 locals, this and input.
+    *
+    * @param pool: constant pool of the generated class, which the weights are added to
+    * @param numActs: configuration number of activations in each layer
+    * @param weights1: flat weights between input and hidden activations
+    * @param weights2: flat weights between hidden and output activations
+    * @param useTableSigmoid: whether to call AB1_Net.tableSigmoid instead of sigmoid
+    *
+    * @return the bytecode
+    */
+   static byte[] writeRun(ConstantPool pool, int[] numActs, double[] weights1, double[] weights2,
+         boolean useTableSigmoid)
+   {
+      ByteArrayOutputStream code = new ByteArrayOutputStream();
+      int sigmoid = pool.methodRef("AB1_Net", useTableSigmoid ? "tableSigmoid" : "sigmoid", "(D)D");
+      int row, weight;
+
+      code.write(DCONST_0);
+
+      for (int j = 0; j < numActs[1]; j++)
+      {
+         if (weights2[j] == 0.0) // the hidden node adds nothing to the output
+         {
+            continue;
+         }
+
+         row = j * numActs[0];
+         code.write(DCONST_0);
+
+         for (int k = 0; k < numActs[0]; k++)
+         {
+            if (weights1[row + k] != 0.0)
+            {
+               weight = pool.doubleConstant(weights1[row + k]);
+               code.write(ALOAD_1);
+               pushIndex(code, k);
+               code.write(DALOAD);
+               code.write(LDC2_W);
+               code.write(weight >> 8);
+               code.write(weight);
+               code.write(DMUL);
+               code.write(DADD);
+            }
+         } // for (int k = 0; k < numActs[0]; k++)
+
+         weight = pool.doubleConstant(weights2[j]);
+         code.write(INVOKESTATIC);
+         code.write(sigmoid >> 8);
+         code.write(sigmoid);
+         code.write(LDC2_W);
+         code.write(weight >> 8);
+         code.write(weight);
+         code.write(DMUL);
+         code.write(DADD);
+      } // for (int j = 0; j < numActs[1]; j++)
+
+      code.write(INVOKESTATIC);
+      code.write(sigmoid >> 8);
+      code.write(sigmoid);
+      code.write(DRETURN);
+      return code.toByteArray();
+   } // static byte[] writeRun(ConstantPool pool, int[] numActs, double[] weights1, double[] weights2, ...)
+
+   /*
+    * Writes the shortest instruction that pushes index onto the operand stack: iconst_<n>, bipush or
+    *    sipush.
+    *
+    * @param code: bytecode being written
+    * @param index: array index to push, from 0 to Short.MAX_VALUE
+    */
+   static void pushIndex(ByteArrayOutputStream code, int index)
+   {
+      if (index <= 5)
+      {
+         code.write(ICONST_0 + index);
+      }
+      else if (index <= Byte.MAX_VALUE)
+      {
+         code.write(BIPUSH);
+         code.write(index);
+      }
+      else
+      {
+         code.write(SIPUSH);
+         code.write(index >> 8);
+         code.write(index);
+      }
+   } // static void pushIndex(ByteArrayOutputStream code, int index)
+
+   /*
+    * The constant pool of the generated class. Each entry is written to entries as it is added, and
+    *    added only once, so repeated names and equal weights share an index.
+    *
+    * entries: the entries written so far.
+    * indices: index of every entry added, keyed by its tag and contents.
+    * count: index the next entry will get. Doubles take two indices.
+    */
+   static final class ConstantPool
+   {
+      static final int UTF8 = 1, DOUBLE = 6, CLASS = 7, METHOD_REF = 10, NAME_AND_TYPE = 12;
+
+      final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+      final HashMap<String, Integer> indices = new HashMap<String, Integer>();
+      int count = 1;
+
+      /*
+       * @return the index of a CONSTANT_Utf8 entry holding s, which must be ASCII, so that its modified
+       *    UTF-8 encoding is one byte per char
+       */
+      int utf8(String s)
+      {
+         Integer index = indices.get(UTF8 + ":" + s);
+
+         if (index == null)
+         {
+            index = add(UTF8 + ":" + s, 1);
+            entries.write(UTF8);
+            writeShort(s.length());
+            entries.writeBytes(s.getBytes(StandardCharsets.US_ASCII));
+         }
+         return index;
+      } // int utf8(String s)
+
+      /*
+       * @return the index of a CONSTANT_Class entry for the class with internal name name
+       */
+      int classRef(String name)
+      {
+         int nameIndex = utf8(name);
+         Integer index = indices.get(CLASS + ":" + name);
+
+         if (index == null)
+         {
+            index = add(CLASS + ":" + name, 1);
+            entries.write(CLASS);
+            writeShort(nameIndex);
+         }
+         return index;
+      } // int classRef(String name)
+
+      /*
+       * @return the index of a CONSTANT_Methodref entry for the method name with descriptor type in the
+       *    class with internal name owner
+       */
+      int methodRef(String owner, String name, String type)
+      {
+         int ownerIndex = classRef(owner), nameIndex = utf8(name), typeIndex = utf8(type);
+         Integer index = indices.get(METHOD_REF + ":" + owner + "." + name + type);
+
+         if (index == null)
+         {
+            int nameAndType = add(NAME_AND_TYPE + ":" + owner + "." + name + type, 1);
+            entries.write(NAME_AND_TYPE);
+            writeShort(nameIndex);
+            writeShort(typeIndex);
+
+            index = add(METHOD_REF + ":" + owner + "." + name + type, 1);
+            entries.write(METHOD_REF);
+            writeShort(ownerIndex);
+            writeShort(nameAndType);
+         }
+         return index;
+      } // int methodRef(String owner, String name, String type)
+
+      /*
+       * @return the index of a CONSTANT_Double entry holding value. Values are matched by their bits, so
+       *    0.0 and -0.0 get separate entries.
+       */
+      int doubleConstant(double value)
+      {
+         long bits = Double.doubleToRawLongBits(value);
+         Integer index = indices.get(DOUBLE + ":" + bits);
+
+         if (index == null)
+         {
+            index = add(DOUBLE + ":" + bits, 2);
+            entries.write(DOUBLE);
+            writeShort((int) (bits >>> 48));
+            writeShort((int) (bits >>> 32));
+            writeShort((int) (bits >>> 16));
+            writeShort((int) bits);
+         }
+         return index;
+      } // int doubleConstant(double value)
+
+      /*
+       * Assigns the next index to an entry.
+       *
+       * @param key: tag and contents of the entry
+       * @param slots: number of indices the entry takes
+       *
+       * @return the entry's index
+       */
+      private int add(String key, int slots)
+      {
+         int index = count;
+
+         indices.put(key, index);
+         count += slots;
+         return index;
+      }
+
+      /*
+       * Writes the low 16 bits of value to entries, big-endian.
+       */
+      private void writeShort(int value)
+      {
+         entries.write(value >> 8);
+         entries.write(value);
+      }
+
+      /*
+       * Writes constant_pool_count and every entry.
+       *
+       * @param out: stream the classfile is being written to
+       */
+      void writeTo(DataOutputStream out) throws IOException
+      {
+         out.writeShort(count);
+         entries.writeTo(out);
+      }
+   } // static final class ConstantPool
+
+} // public abstract class AB1_CompiledModel
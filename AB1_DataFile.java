@@ -0,0 +1,291 @@
+/*
+ * This file implements a streaming source of training cases for AB1_Net, read from a flat binary file
+ * that can be much larger than the heap.
+ *
+ * File layout (all values little-endian):
+ *    int      magic: MAGIC, the bytes "AB1D"
+ *    int      version: VERSION
+ *    long     nCases: number of training cases
+ *    int      nInEachInput: number of values in each input case
+ *    int      padding, so the cases start 8-byte aligned
+ *    double[] cases: nCases records of nInEachInput input values followed by the expected output
+ *
+ * The file is read one chunk of cases at a time. A background prefetch thread maps the file in windows of
+ * up to WINDOW_BYTES with FileChannel.map, copies the next chunk out of the current window into one of two
+ * chunk buffers and hands it to the trainer, so the next chunk is being read while the trainer works on
+ * the current one. Only the two chunk buffers are ever held on the heap. A window is only remapped once
+ * the pass moves past it, so a file smaller than WINDOW_BYTES is mapped once for every pass.
+ *
+ * Usage:
+ *    data.startEpoch();
+ *    while ((chunk = data.next()) != null) { ... data.release(chunk); }
+ *
+ * Methods:
+ *    write: writes in-memory cases to a file in this format.
+ *    AB1_DataFile: opens a file, checks its header and starts the prefetch thread.
+ *    startEpoch: requests one pass over the file from the prefetch thread.
+ *    next: waits for the next chunk of the current pass.
+ *    release: hands a chunk buffer back to the prefetch thread to be refilled.
+ *    prefetch: body of the prefetch thread, which maps windows of the file and fills chunks from them.
+ *    close: stops the prefetch thread and closes the file.
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+public final class AB1_DataFile implements AutoCloseable
+{
+   /*
+    * MAGIC: first four bytes of every file, "AB1D".
+    * VERSION: current version of the file layout.
+    * HEADER_SIZE: size in bytes of the header.
+    * WINDOW_BYTES: maximum size of each mapped window of the file.
+    */
+   static final int MAGIC = 0x44314241;
+   static final int VERSION = 1;
+   static final int HEADER_SIZE = 24;
+   static final long WINDOW_BYTES = 1L << 30;
+
+   /*
+    * A block of consecutive cases. data holds cases records of nInEachInput + 1 values, each record being
+    *    a case's inputs followed by its expected output.
+    */
+   public static class Chunk
+   {
+      final double[] data;
+      int cases;
+
+      Chunk(int size)
+      {
+         data = new double[size];
+      }
+   } // public static class Chunk
+
+   /*
+    * END: marks the end of a pass in the full queue.
+    *
+    * channel: the open data file.
+    * nCases: number of cases in the file.
+    * nInEachInput: number of values in each input case.
+    * chunkCases: maximum number of cases in each chunk.
+    *
+    * free: chunk buffers waiting to be filled by the prefetch thread.
+    * full: filled chunk buffers waiting for the trainer, followed by END at the end of each pass.
+    * epochs: one permit for every pass requested by startEpoch.
+    * failure: whatever the prefetch thread died of, rethrown by next.
+    */
+   static final Chunk END = new Chunk(0);
+
+   FileChannel channel;
+   long nCases;
+   int nInEachInput, chunkCases;
+
+   BlockingQueue<Chunk> free, full;
+   Semaphore epochs;
+   Thread prefetcher;
+   volatile Throwable failure;
+
+   /*
+    * Writes cases to path in this format, replacing any existing file.
+    *
+    * @param path: file to write
+    * @param inputs: input data, one case per row
+    * @param outputs: expected output for each case
+    */
+   public static void write(String path, double[][] inputs, double[] outputs) throws IOException
+   {
+      int nIn = inputs[0].length;
+      ByteBuffer record = ByteBuffer.allocate(8 * (nIn + 1)).order(ByteOrder.LITTLE_ENDIAN);
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+      header.putInt(MAGIC).putInt(VERSION).putLong(inputs.length).putInt(nIn).putInt(0).flip();
+
+      try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+      {
+         out.write(header);
+
+         for (int case_ = 0; case_ < inputs.length; case_++)
+         {
+            record.clear();
+            record.asDoubleBuffer().put(inputs[case_]).put(outputs[case_]);
+
+            while (record.hasRemaining())
+            {
+               out.write(record);
+            }
+         } // for (int case_ = 0; case_ < inputs.length; case_++)
+      }
+   } // public static void write(String path, double[][] inputs, double[] outputs)
+
+   /*
+    * Opens a data file and starts its prefetch thread. The class is final, so the thread never sees a
+    *    subclass that hasn't finished initializing.
+    *
+    * @param path: file to read
+    * @param chunkCases: number of cases read into each chunk
+    */
+   public AB1_DataFile(String path, int chunkCases) throws IOException
+   {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+      channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+      channel.read(header, 0);
+
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+      {
+         channel.close();
+         throw new IOException(path + " is not a version " + VERSION + " AB1 data file");
+      }
+
+      nCases = header.getLong(8);
+      nInEachInput = header.getInt(16);
+      this.chunkCases = chunkCases;
+
+      if (channel.size() != HEADER_SIZE + nCases * 8L * (nInEachInput + 1))
+      {
+         channel.close();
+         throw new IOException(path + " is " + channel.size() + " bytes, which doesn't match its header");
+      }
+
+      // two chunk buffers: one being trained on while the other is prefetched
+      free = new ArrayBlockingQueue<Chunk>(2);
+      full = new ArrayBlockingQueue<Chunk>(3);
+      free.add(new Chunk(chunkCases * (nInEachInput + 1)));
+      free.add(new Chunk(chunkCases * (nInEachInput + 1)));
+      epochs = new Semaphore(0);
+
+      prefetcher = new Thread(this::prefetch, "AB1_DataFile prefetch");
+      prefetcher.setDaemon(true);
+      prefetcher.start();
+   } // public AB1_DataFile(String path, int chunkCases)
+
+   /*
+    * Requests one pass over every case in the file. The chunks of the pass are returned by next.
+    */
+   public void startEpoch()
+   {
+      epochs.release();
+   }
+
+   /*
+    * Waits for the next chunk of the current pass. The chunk must be handed back with release once the
+    *    trainer is done with it. If the prefetch thread failed, its exception is rethrown here: an
+    *    IOException, RuntimeException or Error as is, anything else wrapped in an IOException.
+    *
+    * @return the next chunk, or null once every chunk of the pass has been returned
+    */
+   public Chunk next() throws IOException
+   {
+      Chunk chunk;
+
+      try
+      {
+         chunk = full.take();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IOException("interrupted while waiting for training data", e);
+      }
+
+      if (failure instanceof IOException e)
+      {
+         throw e;
+      }
+      if (failure instanceof RuntimeException e)
+      {
+         throw e;
+      }
+      if (failure instanceof Error e)
+      {
+         throw e;
+      }
+      if (failure != null)
+      {
+         throw new IOException("the prefetch thread failed", failure);
+      }
+
+      return (chunk == END) ? null : chunk;
+   } // public Chunk next()
+
+   /*
+    * Hands a chunk returned by next back to the prefetch thread.
+    *
+    * @param chunk: the chunk the trainer is done with
+    */
+   public void release(Chunk chunk)
+   {
+      free.add(chunk);
+   }
+
+   /*
+    * Body of the prefetch thread. For every requested pass, maps each window of chunkCases records in
+    *    turn, copies it into a free chunk buffer and queues the buffer for the trainer. If anything goes
+    *    wrong, the error is stored in failure and END is queued, so the trainer wakes up and rethrows it
+    *    instead of waiting forever for a chunk.
+    */
+   void prefetch()
+   {
+      int record = nInEachInput + 1;
+      long recordBytes = 8L * record;
+      long windowStart = 0, windowCases = 0;
+      ByteBuffer window = null;
+      Chunk chunk;
+
+      try
+      {
+         while (true)
+         {
+            epochs.acquire();
+
+            for (long start = 0; start < nCases; start += chunkCases)
+            {
+               chunk = free.take();
+               chunk.cases = (int) Math.min(chunkCases, nCases - start);
+
+               // map the next window once the chunk runs past the current one
+               if (window == null || start < windowStart || start + chunk.cases > windowStart + windowCases)
+               {
+                  windowStart = start;
+                  windowCases = Math.min(nCases - start, Math.max(chunkCases, WINDOW_BYTES / recordBytes));
+                  window = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + start * recordBytes,
+                        windowCases * recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+               }
+
+               window.asDoubleBuffer().position((int) ((start - windowStart) * record))
+                     .get(chunk.data, 0, chunk.cases * record);
+
+               full.put(chunk);
+            } // for (long start = 0; start < nCases; start += chunkCases)
+
+            full.put(END);
+         } // while (true)
+      }
+      catch (InterruptedException e)
+      {
+         // closed
+      }
+      catch (Throwable t)
+      {
+         failure = t;
+         full.offer(END);
+      }
+   } // void prefetch()
+
+   /*
+    * Stops the prefetch thread and closes the file.
+    */
+   public void close() throws IOException
+   {
+      prefetcher.interrupt();
+      channel.close();
+   }
+
+} // public final class AB1_DataFile
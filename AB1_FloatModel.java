@@ -0,0 +1,186 @@
+/*
+ * This file implements an immutable float32 A-B-1 model for inference, exported from the double weights
+ * of an AB1_Net. Storing the weights as floats halves the model's footprint and the memory traffic of a
+ * forward pass, and doubles the number of SIMD lanes per vector, at the cost of rounding every weight and
+ * activation to single precision.
+ *
+ * Like AB1_Model, the model never changes after construction and keeps all scratch space in a per-thread
+ * Context, so any number of threads can share one model without locking. Unlike AB1_Model, it always
+ * activates with its own single-precision sigmoid, even for a network trained with AB1_Net.tableSigmoid,
+ * so for such a network its difference from AB1_Model includes the table's error as well as rounding.
+ *
+ * Methods:
+ *    AB1_FloatModel: rounds a configuration and its weights to floats.
+ *    newContext: allocates the scratch buffers for one thread.
+ *    run: runs the model on one input using a caller-owned context.
+ *    dot: dot product of a float activation array with one contiguous row of a flat float weight array.
+ *    sigmoid: applies a sigmoid to the input in single precision.
+ *    weightBytes: size in bytes of the model's weights.
+ */
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+public final class AB1_FloatModel
+{
+   /*
+    * VECTOR_DOT: handle to AB1_VectorKernel.dotFloat, or null if the kernel isn't available.
+    *
+    * numActs: configuration number of activations in each layer.
+    * weights1: weights between input and hidden activations, laid out as in AB1_Net.
+    * weights2: weights between hidden and output activations, laid out as in AB1_Net.
+    * useVector: whether theta accumulation uses the Vector API kernel.
+    */
+   static final MethodHandle VECTOR_DOT = AB1_Net.findVectorKernel("dotFloat", MethodType.methodType(
+         float.class, float[].class, float[].class, int.class, int.class));
+
+   private final int[] numActs;
+   private final float[] weights1, weights2;
+   private final boolean useVector;
+
+   /*
+    * Per-thread scratch space for running the model.
+    * a: the input, rounded to floats.
+    * h: hidden activations.
+    */
+   public final class Context
+   {
+      final float[] a = new float[numActs[0]];
+      final float[] h = new float[numActs[1]];
+
+      private Context()
+      {
+      }
+
+      /*
+       * Runs the model on input using this context's buffers.
+       *
+       * @param input: data for model to make predictions on
+       *
+       * @return prediction
+       */
+      public double run(double[] input)
+      {
+         return AB1_FloatModel.this.run(this, input);
+      }
+   } // public final class Context
+
+   /*
+    * Creates a model from a network configuration and double weights, rounding each weight to the
+    *    nearest float.
+    *
+    * @param numActs: configuration number of activations in each layer
+    * @param weights1: flat weights between input and hidden activations
+    * @param weights2: flat weights between hidden and output activations
+    * @param useVector: whether to use the Vector API kernel
+    */
+   public AB1_FloatModel(int[] numActs, double[] weights1, double[] weights2, boolean useVector)
+   {
+      this.numActs = numActs.clone();
+      this.weights1 = new float[weights1.length];
+      this.weights2 = new float[weights2.length];
+      this.useVector = useVector;
+
+      for (int i = 0; i < weights1.length; i++)
+      {
+         this.weights1[i] = (float) weights1[i];
+      }
+
+      for (int i = 0; i < weights2.length; i++)
+      {
+         this.weights2[i] = (float) weights2[i];
+      }
+   } // public AB1_FloatModel(int[] numActs, double[] weights1, double[] weights2, boolean useVector)
+
+   /*
+    * Allocates the scratch buffers one thread needs to run the model.
+    *
+    * @return a new context
+    */
+   public Context newContext()
+   {
+      return new Context();
+   }
+
+   /*
+    * Runs the model on input in single precision. Only ctx is written to, so concurrent calls are safe as
+    *    long as each thread passes its own context.
+    *
+    * @param ctx: the calling thread's context
+    * @param input: data for model to make predictions on
+    *
+    * @return prediction
+    */
+   public double run(Context ctx, double[] input)
+   {
+      float[] a = ctx.a, h = ctx.h;
+
+      for (int k = 0; k < numActs[0]; k++)
+      {
+         a[k] = (float) input[k];
+      }
+
+      // for each node in the hidden layer
+      for (int j = 0; j < numActs[1]; j++)
+      {
+         h[j] = sigmoid(dot(a, weights1, j * numActs[0], numActs[0]));
+      }
+
+      return sigmoid(dot(h, weights2, 0, numActs[1]));
+   } // public double run(Context ctx, double[] input)
+
+   /*
+    * Calculates the dot product of act with the n weights of w starting at offset, with the Vector API
+    *    kernel if useVector is set and the kernel was found, otherwise with a scalar loop.
+    *
+    * @param act: activations of the previous layer
+    * @param w: flat weight array
+    * @param offset: index in w of the first weight in the row
+    * @param n: number of activations/weights in the row
+    *
+    * @return the accumulated theta value
+    */
+   float dot(float[] act, float[] w, int offset, int n)
+   {
+      if (useVector && VECTOR_DOT != null)
+      {
+         try
+         {
+            return (float) VECTOR_DOT.invokeExact(act, w, offset, n);
+         }
+         catch (Throwable t)
+         {
+            throw new RuntimeException(t);
+         }
+      } // if (useVector && VECTOR_DOT != null)
+
+      float sum = 0.0f;
+
+      for (int k = 0; k < n; k++)
+      {
+         sum += act[k] * w[offset + k];
+      }
+
+      return sum;
+   } // float dot(float[] act, float[] w, int offset, int n)
+
+   /*
+    * Applies a sigmoid to the input in single precision.
+    *
+    * @param value: input to the sigmoid
+    *
+    * @return sigmoid output
+    */
+   static float sigmoid(float value)
+   {
+      return 1.0f / (1.0f + (float) Math.exp(-value));
+   }
+
+   /*
+    * @return size in bytes of the model's weights
+    */
+   public long weightBytes()
+   {
+      return 4L * (weights1.length + weights2.length);
+   }
+
+} // public final class AB1_FloatModel
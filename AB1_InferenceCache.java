@@ -0,0 +1,324 @@
+/*
+ * This file implements a bounded cache of predictions in front of an AB1_Model. When the inputs seen in
+ * practice come from a small set, such as the binary cases of populateHardCode or one-hot features, most
+ * predictions are for an input the model has already run, and the cache answers those without a forward
+ * pass. Once the cache holds capacity inputs, the least recently used one is evicted to make room.
+ *
+ * Invalidation: a cache belongs to one model at a time. The model is passed to every run call, and if it
+ * isn't the model the cached predictions came from, the cache is cleared before the lookup. Models are
+ * immutable and any change to the weights produces a new one (toModel, or a snapshot published by
+ * AB1_OnlineLearner), so a prediction made with old weights is never returned.
+ *
+ * A lookup hashes the caller's input array in place and compares it value by value with the stored
+ * inputs, so a hit neither copies the input nor allocates. Inputs match only if every value has the same
+ * bits, as in Arrays.equals. All storage is allocated up front in flat arrays: the stored inputs are
+ * laid out back to back like the rows of weights1, and the hash chains and the recency list are linked
+ * through entry indices, so a miss doesn't allocate either; it copies the input into the slot it takes.
+ *
+ * Like an AB1_Model.Context, a cache is scratch space for one thread and must not be used by two threads
+ * at once. Each reader thread keeps its own.
+ *
+ * Methods:
+ *    AB1_InferenceCache: allocates a cache for inputs of a given size.
+ *    run: returns the cached prediction for an input, running the model and caching it on a miss.
+ *    clear: empties the cache.
+ *    hits, misses, invalidations: counters since the cache was created.
+ *    size: number of inputs currently cached.
+ *    find: looks up the entry holding an input.
+ *    insert: caches a prediction, evicting the least recently used entry if the cache is full.
+ *    unlink, unchain, touch: maintain the recency list and the hash chains.
+ *    hash: hashes an input's values without copying it.
+ */
+import java.util.Arrays;
+
+public final class AB1_InferenceCache
+{
+   /*
+    * NONE: entry index marking the end of a hash chain or of the recency list.
+    *
+    * numInputs: number of values in every input.
+    * capacity: largest number of inputs cached at once.
+    * model: the model whose predictions are cached, or null if the cache is empty.
+    *
+    * inputs: the input of entry e at inputs[e * numInputs] through inputs[(e + 1) * numInputs - 1].
+    * outputs: the prediction of each entry.
+    * hashes: the hash of each entry's input.
+    * buckets: first entry of each hash chain. The length is a power of two at least twice capacity.
+    * chain: next entry in the same hash chain.
+    * older, newer: neighbors of each entry in the recency list.
+    * oldest, newest: ends of the recency list.
+    * size: number of entries in use, always entries 0 through size - 1.
+    *
+    * hits, misses: lookups answered from the cache and lookups that ran the model.
+    * invalidations: number of times the cache was cleared because the model changed.
+    */
+   static final int NONE = -1;
+
+   final int numInputs, capacity;
+   AB1_Model model;
+
+   final double[] inputs, outputs;
+   final int[] hashes, buckets, chain, older, newer;
+   int oldest = NONE, newest = NONE, size;
+
+   long hits, misses, invalidations;
+
+   /*
+    * Allocates an empty cache.
+    *
+    * @param numInputs: number of values in every input, numActs[0] of the models it will cache
+    * @param capacity: largest number of inputs to cache
+    */
+   public AB1_InferenceCache(int numInputs, int capacity)
+   {
+      this.numInputs = numInputs;
+      this.capacity = capacity;
+
+      inputs = new double[capacity * numInputs];
+      outputs = new double[capacity];
+      hashes = new int[capacity];
+      chain = new int[capacity];
+      older = new int[capacity];
+      newer = new int[capacity];
+      buckets = new int[Integer.highestOneBit(Math.max(1, capacity)) * 4];
+      Arrays.fill(buckets, NONE);
+   } // public AB1_InferenceCache(int numInputs, int capacity)
+
+   /*
+    * Returns model's prediction for input, from the cache if input was seen since the cache last
+    *    changed models, otherwise by running the model and caching the result.
+    *
+    * @param model: the model to predict with. If it isn't the model the cache holds predictions of, the
+    *    cache is cleared first.
+    * @param ctx: the calling thread's context for model
+    * @param input: data for model to make predictions on
+    *
+    * @return prediction
+    */
+   public double run(AB1_Model model, AB1_Model.Context ctx, double[] input)
+   {
+      if (model != this.model)
+      {
+         if (size > 0)
+         {
+            invalidations++;
+         }
+         clear();
+         this.model = model;
+      }
+
+      int hash = hash(input);
+      int entry = find(input, hash);
+
+      if (entry != NONE)
+      {
+         hits++;
+         touch(entry);
+         return outputs[entry];
+      }
+
+      misses++;
+      double output = model.run(ctx, input);
+      insert(input, hash, output);
+      return output;
+   } // public double run(AB1_Model model, AB1_Model.Context ctx, double[] input)
+
+   /*
+    * Empties the cache. The counters are kept.
+    */
+   public void clear()
+   {
+      Arrays.fill(buckets, NONE);
+      oldest = NONE;
+      newest = NONE;
+      size = 0;
+      model = null;
+   }
+
+   /*
+    * @return number of lookups answered from the cache
+    */
+   public long hits()
+   {
+      return hits;
+   }
+
+   /*
+    * @return number of lookups that ran the model
+    */
+   public long misses()
+   {
+      return misses;
+   }
+
+   /*
+    * @return number of times the cache was cleared because it was asked to run a different model
+    */
+   public long invalidations()
+   {
+      return invalidations;
+   }
+
+   /*
+    * @return number of inputs currently cached
+    */
+   public int size()
+   {
+      return size;
+   }
+
+   /*
+    * Looks up the entry holding input.
+    *
+    * @param input: the input to look up
+    * @param hash: hash(input)
+    *
+    * @return the entry's index, or NONE if input isn't cached
+    */
+   int find(double[] input, int hash)
+   {
+      for (int e = buckets[hash & (buckets.length - 1)]; e != NONE; e = chain[e])
+      {
+         if (hashes[e] == hash &&
+               Arrays.equals(inputs, e * numInputs, (e + 1) * numInputs, input, 0, numInputs))
+         {
+            return e;
+         }
+      }
+
+      return NONE;
+   } // int find(double[] input, int hash)
+
+   /*
+    * Caches output as the prediction for input, which must not be cached already. Takes the next unused
+    *    entry, or the least recently used one if the cache is full, and makes it the most recently used.
+    *
+    * @param input: the input, copied into the entry
+    * @param hash: hash(input)
+    * @param output: the model's prediction for input
+    */
+   void insert(double[] input, int hash, double output)
+   {
+      int entry, bucket = hash & (buckets.length - 1);
+
+      if (capacity == 0)
+      {
+         return;
+      }
+
+      if (size < capacity)
+      {
+         entry = size++;
+      }
+      else // evict the least recently used entry
+      {
+         entry = oldest;
+         unlink(entry);
+         unchain(entry);
+      }
+
+      System.arraycopy(input, 0, inputs, entry * numInputs, numInputs);
+      outputs[entry] = output;
+      hashes[entry] = hash;
+
+      chain[entry] = buckets[bucket];
+      buckets[bucket] = entry;
+
+      older[entry] = newest;
+      newer[entry] = NONE;
+      if (newest != NONE)
+      {
+         newer[newest] = entry;
+      }
+      else
+      {
+         oldest = entry;
+      }
+      newest = entry;
+   } // void insert(double[] input, int hash, double output)
+
+   /*
+    * Removes an entry from the recency list.
+    */
+   void unlink(int entry)
+   {
+      if (older[entry] != NONE)
+      {
+         newer[older[entry]] = newer[entry];
+      }
+      else
+      {
+         oldest = newer[entry];
+      }
+
+      if (newer[entry] != NONE)
+      {
+         older[newer[entry]] = older[entry];
+      }
+      else
+      {
+         newest = older[entry];
+      }
+   } // void unlink(int entry)
+
+   /*
+    * Removes an entry from its hash chain.
+    */
+   void unchain(int entry)
+   {
+      int bucket = hashes[entry] & (buckets.length - 1);
+
+      if (buckets[bucket] == entry)
+      {
+         buckets[bucket] = chain[entry];
+         return;
+      }
+
+      for (int e = buckets[bucket]; e != NONE; e = chain[e])
+      {
+         if (chain[e] == entry)
+         {
+            chain[e] = chain[entry];
+            return;
+         }
+      }
+   } // void unchain(int entry)
+
+   /*
+    * Makes an entry the most recently used.
+    */
+   void touch(int entry)
+   {
+      if (entry != newest)
+      {
+         unlink(entry);
+         older[entry] = newest;
+         newer[entry] = NONE;
+         newer[newest] = entry;
+         newest = entry;
+      }
+   } // void touch(int entry)
+
+   /*
+    * Hashes the first numInputs values of input by their bits, like Arrays.hashCode, then spreads the
+    *    high bits into the low ones, since only the low bits pick the hash chain.
+    *
+    * @param input: the input to hash
+    *
+    * @return the hash
+    */
+   int hash(double[] input)
+   {
+      int h = 1;
+      long bits;
+
+      for (int k = 0; k < numInputs; k++)
+      {
+         bits = Double.doubleToLongBits(input[k]);
+         h = 31 * h + (int) (bits ^ (bits >>> 32));
+      }
+
+      return h ^ (h >>> 16);
+   } // int hash(double[] input)
+
+} // public final class AB1_InferenceCache
@@ -0,0 +1,199 @@
+/*
+ * This file implements an immutable int8-quantized A-B-1 model for inference, exported from the double
+ * weights of an AB1_Net. Each layer's weights are stored as signed bytes with one scale per layer,
+ *
+ *    scale = max |w| / 127,   q = round(w / scale),   w ~ q * scale,
+ *
+ * which cuts the model's footprint to an eighth of the double model. Activations stay float: each row's
+ * dot product is accumulated against the raw bytes and multiplied by the layer's scale once at the end.
+ * Every weight is off by at most half a scale step, so the error grows with the largest weight in the
+ * layer; layers with a few outlying weights lose the most precision.
+ *
+ * Like AB1_Model, the model never changes after construction and keeps all scratch space in a per-thread
+ * Context, so any number of threads can share one model without locking. It always activates with
+ * AB1_FloatModel's single-precision sigmoid, even for a network trained with AB1_Net.tableSigmoid.
+ *
+ * Methods:
+ *    AB1_Int8Model: quantizes a configuration and its weights.
+ *    quantize: quantizes one layer of weights and returns its scale.
+ *    newContext: allocates the scratch buffers for one thread.
+ *    run: runs the model on one input using a caller-owned context.
+ *    dot: dot product of a float activation array with one contiguous row of a flat int8 weight array.
+ *    weightBytes: size in bytes of the model's weights.
+ */
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+public final class AB1_Int8Model
+{
+   /*
+    * VECTOR_DOT: handle to AB1_VectorKernel.dotInt8, or null if the kernel isn't available.
+    *
+    * numActs: configuration number of activations in each layer.
+    * weights1: quantized weights between input and hidden activations, laid out as in AB1_Net.
+    * weights2: quantized weights between hidden and output activations, laid out as in AB1_Net.
+    * scale1, scale2: value of one step of weights1 and weights2.
+    * useVector: whether theta accumulation uses the Vector API kernel.
+    */
+   static final MethodHandle VECTOR_DOT = AB1_Net.findVectorKernel("dotInt8", MethodType.methodType(
+         float.class, float[].class, byte[].class, int.class, int.class));
+
+   private final int[] numActs;
+   private final byte[] weights1, weights2;
+   private final float scale1, scale2;
+   private final boolean useVector;
+
+   /*
+    * Per-thread scratch space for running the model.
+    * a: the input, rounded to floats.
+    * h: hidden activations.
+    */
+   public final class Context
+   {
+      final float[] a = new float[numActs[0]];
+      final float[] h = new float[numActs[1]];
+
+      private Context()
+      {
+      }
+
+      /*
+       * Runs the model on input using this context's buffers.
+       *
+       * @param input: data for model to make predictions on
+       *
+       * @return prediction
+       */
+      public double run(double[] input)
+      {
+         return AB1_Int8Model.this.run(this, input);
+      }
+   } // public final class Context
+
+   /*
+    * Creates a model from a network configuration and double weights, quantizing each layer with its own
+    *    scale.
+    *
+    * @param numActs: configuration number of activations in each layer
+    * @param weights1: flat weights between input and hidden activations
+    * @param weights2: flat weights between hidden and output activations
+    * @param useVector: whether to use the Vector API kernel
+    */
+   public AB1_Int8Model(int[] numActs, double[] weights1, double[] weights2, boolean useVector)
+   {
+      this.numActs = numActs.clone();
+      this.weights1 = new byte[weights1.length];
+      this.weights2 = new byte[weights2.length];
+      this.scale1 = quantize(weights1, this.weights1);
+      this.scale2 = quantize(weights2, this.weights2);
+      this.useVector = useVector;
+   }
+
+   /*
+    * Quantizes one layer of weights to the range [-127, 127].
+    *
+    * @param weights: the layer's double weights
+    * @param quantized: receives the layer's quantized weights
+    *
+    * @return the layer's scale, the value of one step of the quantized weights
+    */
+   static float quantize(double[] weights, byte[] quantized)
+   {
+      double maxAbs = 0.0, scale;
+
+      for (int i = 0; i < weights.length; i++)
+      {
+         maxAbs = Math.max(maxAbs, Math.abs(weights[i]));
+      }
+
+      scale = (maxAbs > 0.0) ? maxAbs / 127.0 : 1.0;
+
+      for (int i = 0; i < weights.length; i++)
+      {
+         quantized[i] = (byte) Math.round(weights[i] / scale);
+      }
+
+      return (float) scale;
+   } // static float quantize(double[] weights, byte[] quantized)
+
+   /*
+    * Allocates the scratch buffers one thread needs to run the model.
+    *
+    * @return a new context
+    */
+   public Context newContext()
+   {
+      return new Context();
+   }
+
+   /*
+    * Runs the model on input. Only ctx is written to, so concurrent calls are safe as long as each thread
+    *    passes its own context.
+    *
+    * @param ctx: the calling thread's context
+    * @param input: data for model to make predictions on
+    *
+    * @return prediction
+    */
+   public double run(Context ctx, double[] input)
+   {
+      float[] a = ctx.a, h = ctx.h;
+
+      for (int k = 0; k < numActs[0]; k++)
+      {
+         a[k] = (float) input[k];
+      }
+
+      // for each node in the hidden layer
+      for (int j = 0; j < numActs[1]; j++)
+      {
+         h[j] = AB1_FloatModel.sigmoid(scale1 * dot(a, weights1, j * numActs[0], numActs[0]));
+      }
+
+      return AB1_FloatModel.sigmoid(scale2 * dot(h, weights2, 0, numActs[1]));
+   } // public double run(Context ctx, double[] input)
+
+   /*
+    * Calculates the dot product of act with the n quantized weights of w starting at offset, with the
+    *    Vector API kernel if useVector is set and the kernel was found, otherwise with a scalar loop.
+    *
+    * @param act: activations of the previous layer
+    * @param w: flat quantized weight array
+    * @param offset: index in w of the first weight in the row
+    * @param n: number of activations/weights in the row
+    *
+    * @return the accumulated theta value, divided by the layer's scale
+    */
+   float dot(float[] act, byte[] w, int offset, int n)
+   {
+      if (useVector && VECTOR_DOT != null)
+      {
+         try
+         {
+            return (float) VECTOR_DOT.invokeExact(act, w, offset, n);
+         }
+         catch (Throwable t)
+         {
+            throw new RuntimeException(t);
+         }
+      } // if (useVector && VECTOR_DOT != null)
+
+      float sum = 0.0f;
+
+      for (int k = 0; k < n; k++)
+      {
+         sum += act[k] * w[offset + k];
+      }
+
+      return sum;
+   } // float dot(float[] act, byte[] w, int offset, int n)
+
+   /*
+    * @return size in bytes of the model's weights, including the two scales
+    */
+   public long weightBytes()
+   {
+      return weights1.length + weights2.length + 8L;
+   }
+
+} // public final class AB1_Int8Model
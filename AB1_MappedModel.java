@@ -0,0 +1,176 @@
+/*
+ * This file implements an immutable A-B-1 model for inference that reads its weights straight out of a
+ * weights file (see AB1_ModelFile) mapped read-only into memory, instead of copying them onto the heap.
+ * The weights live in the operating system's page cache, so every JVM on a host that opens the same file
+ * shares one copy of them, and opening a model costs only mapping the file and checking its header;
+ * pages are read in from disk as the first forward passes touch them.
+ *
+ * Inference reads each weight with an absolute get on a little-endian DoubleBuffer view of the mapping,
+ * which never moves the buffer's position, so, like AB1_Model, the model is never written to after it is
+ * opened and any number of threads can share it, each with its own Context. The Vector API can't load
+ * from a ByteBuffer on JDK 21, so theta accumulation always uses a scalar loop; AB1_OffHeapNet serves
+ * the same files through a memory segment with the vector kernel, but needs --enable-preview.
+ *
+ * The file must not be rewritten while it is mapped, or the model's predictions change underneath it.
+ * The file doesn't record which sigmoid the network trained with, so the caller passes it to open.
+ *
+ * Methods:
+ *    open: maps a weights file and wraps it in a model.
+ *    newContext: allocates the scratch buffers for one thread.
+ *    run: runs the model on one input using a caller-owned context.
+ *    activate: applies the model's sigmoid.
+ *    dot: dot product of an activation array with one contiguous row of the mapped weights.
+ *    numInputs: number of input activations the model expects.
+ *    numHidden: number of hidden activations in the model.
+ */
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+
+public final class AB1_MappedModel
+{
+   /*
+    * numActs: configuration number of activations in each layer, read from the file's header.
+    * weights: view of the mapped weights, weights1 followed by weights2, laid out as in AB1_Net.
+    * offset2: index in weights of the first weight of weights2.
+    * useTableSigmoid: if true, activations are computed with AB1_Net.tableSigmoid instead of sigmoid.
+    */
+   private final int[] numActs;
+   private final DoubleBuffer weights;
+   private final int offset2;
+   private final boolean useTableSigmoid;
+
+   /*
+    * Per-thread scratch space for running the model.
+    * h: hidden activations.
+    */
+   public final class Context
+   {
+      final double[] h = new double[numActs[1]];
+
+      private Context()
+      {
+      }
+
+      /*
+       * Runs the model on input using this context's buffers.
+       *
+       * @param input: data for model to make predictions on
+       *
+       * @return prediction
+       */
+      public double run(double[] input)
+      {
+         return AB1_MappedModel.this.run(this, input);
+      }
+   } // public final class Context
+
+   private AB1_MappedModel(int[] numActs, DoubleBuffer weights, boolean useTableSigmoid)
+   {
+      this.numActs = numActs;
+      this.weights = weights;
+      this.offset2 = numActs[1] * numActs[0];
+      this.useTableSigmoid = useTableSigmoid;
+   }
+
+   /*
+    * Maps path read-only, checks its header and returns a model that runs on the mapped weights. The
+    *    mapping lasts as long as the model.
+    *
+    * @param path: weights file written by AB1_ModelFile.save
+    * @param useTableSigmoid: whether the model activates with AB1_Net.tableSigmoid instead of sigmoid
+    *
+    * @return a model reading its weights from the file
+    */
+   public static AB1_MappedModel open(String path, boolean useTableSigmoid) throws IOException
+   {
+      MappedByteBuffer buf = AB1_ModelFile.map(path);
+      int[] numActs = AB1_ModelFile.readNumActs(buf);
+
+      buf.position(AB1_ModelFile.headerSize(numActs.length));
+      return new AB1_MappedModel(numActs, buf.asDoubleBuffer(), useTableSigmoid);
+   }
+
+   /*
+    * Allocates the scratch buffers one thread needs to run the model.
+    *
+    * @return a new context
+    */
+   public Context newContext()
+   {
+      return new Context();
+   }
+
+   /*
+    * Runs the model on input. Only ctx is written to, so concurrent calls are safe as long as each
+    *    thread passes its own context.
+    *
+    * @param ctx: the calling thread's context
+    * @param input: data for model to make predictions on
+    *
+    * @return prediction
+    */
+   public double run(Context ctx, double[] input)
+   {
+      double[] h = ctx.h;
+
+      // for each node in the hidden layer
+      for (int j = 0; j < numActs[1]; j++)
+      {
+         h[j] = activate(dot(input, j * numActs[0], numActs[0]));
+      }
+
+      return activate(dot(h, offset2, numActs[1]));
+   } // public double run(Context ctx, double[] input)
+
+   /*
+    * Applies the sigmoid the model was opened with.
+    *
+    * @param input: theta value of an activation
+    *
+    * @return the activation
+    */
+   private double activate(double input)
+   {
+      return useTableSigmoid ? AB1_Net.tableSigmoid(input) : AB1_Net.sigmoid(input);
+   }
+
+   /*
+    * Calculates the dot product of act with the n mapped weights starting at offset, in the same order
+    *    as the scalar loop in AB1_Net.dot.
+    *
+    * @param act: activations of the previous layer
+    * @param offset: index in weights of the first weight in the row
+    * @param n: number of activations/weights in the row
+    *
+    * @return the accumulated theta value
+    */
+   double dot(double[] act, int offset, int n)
+   {
+      double sum = 0.0;
+
+      for (int k = 0; k < n; k++)
+      {
+         sum += act[k] * weights.get(offset + k);
+      }
+
+      return sum;
+   } // double dot(double[] act, int offset, int n)
+
+   /*
+    * @return number of input activations the model expects
+    */
+   public int numInputs()
+   {
+      return numActs[0];
+   }
+
+   /*
+    * @return number of hidden activations in the model
+    */
+   public int numHidden()
+   {
+      return numActs[1];
+   }
+
+} // public final class AB1_MappedModel
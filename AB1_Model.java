@@ -0,0 +1,167 @@
+/*
+ * This file implements an immutable A-B-1 model for inference. An AB1_Model holds its own copies of the
+ * node configuration and weights of an AB1_Net, in the same flat layout, and never modifies them after
+ * construction, so any number of threads can share one model without locking.
+ *
+ * All of the scratch space a forward pass needs lives in a Context instead of in the model. A thread
+ * creates a Context once with newContext() and reuses it for every call, so running the model neither
+ * allocates nor writes to shared memory. A Context must not be used by two threads at once.
+ *
+ * The model activates with the same sigmoid as the network it was taken from, AB1_Net.sigmoid or, if
+ * useTableSigmoid is set, tableSigmoid, so it predicts exactly what AB1_Net.run does.
+ *
+ * Methods:
+ *    AB1_Model: copies the configuration and weights into a new model.
+ *    wrap: creates a model backed directly by freshly allocated arrays.
+ *    newContext: allocates the scratch buffers for one thread.
+ *    run: runs the model on one input using a caller-owned context.
+ *    activate: applies the model's sigmoid.
+ *    numInputs: number of input activations the model expects.
+ *    numHidden: number of hidden activations in the model.
+ */
+public final class AB1_Model
+{
+   /*
+    * numActs: configuration number of activations in each layer.
+    * weights1: weights between input and hidden activations, laid out as in AB1_Net.
+    * weights2: weights between hidden and output activations, laid out as in AB1_Net.
+    * useVector: whether theta accumulation uses the Vector API kernel.
+    * useTableSigmoid: if true, activations are computed with AB1_Net.tableSigmoid instead of sigmoid.
+    */
+   private final int[] numActs;
+   private final double[] weights1, weights2;
+   private final boolean useVector, useTableSigmoid;
+
+   /*
+    * Per-thread scratch space for running the model.
+    * h: hidden activations.
+    */
+   public final class Context
+   {
+      final double[] h = new double[numActs[1]];
+
+      private Context()
+      {
+      }
+
+      /*
+       * Runs the model on input using this context's buffers.
+       *
+       * @param input: data for model to make predictions on
+       *
+       * @return prediction
+       */
+      public double run(double[] input)
+      {
+         return AB1_Model.this.run(this, input);
+      }
+   } // public final class Context
+
+   /*
+    * Creates a model from a network configuration and weights. The arrays are copied, so later changes
+    *    to the source network do not affect the model.
+    *
+    * @param numActs: configuration number of activations in each layer
+    * @param weights1: flat weights between input and hidden activations
+    * @param weights2: flat weights between hidden and output activations
+    * @param useVector: whether to use the Vector API kernel
+    * @param useTableSigmoid: whether the model activates with AB1_Net.tableSigmoid instead of sigmoid
+    */
+   public AB1_Model(int[] numActs, double[] weights1, double[] weights2, boolean useVector,
+         boolean useTableSigmoid)
+   {
+      this(useVector, useTableSigmoid, numActs.clone(), weights1.clone(), weights2.clone());
+   }
+
+   /*
+    * Creates a model that takes ownership of the given arrays without copying them.
+    */
+   private AB1_Model(boolean useVector, boolean useTableSigmoid, int[] numActs, double[] weights1,
+         double[] weights2)
+   {
+      this.numActs = numActs;
+      this.weights1 = weights1;
+      this.weights2 = weights2;
+      this.useVector = useVector;
+      this.useTableSigmoid = useTableSigmoid;
+   }
+
+   /*
+    * Wraps arrays the caller has just allocated in a model without copying them. Used by loaders such as
+    *    AB1_ModelFile; the caller must not modify the arrays afterwards.
+    *
+    * @param numActs: configuration number of activations in each layer
+    * @param weights1: flat weights between input and hidden activations
+    * @param weights2: flat weights between hidden and output activations
+    * @param useVector: whether to use the Vector API kernel
+    * @param useTableSigmoid: whether the model activates with AB1_Net.tableSigmoid instead of sigmoid
+    *
+    * @return a model backed by the given arrays
+    */
+   static AB1_Model wrap(int[] numActs, double[] weights1, double[] weights2, boolean useVector,
+         boolean useTableSigmoid)
+   {
+      return new AB1_Model(useVector, useTableSigmoid, numActs, weights1, weights2);
+   }
+
+   /*
+    * Allocates the scratch buffers one thread needs to run the model.
+    *
+    * @return a new context
+    */
+   public Context newContext()
+   {
+      return new Context();
+   }
+
+   /*
+    * Runs the model on input. Only ctx is written to, so concurrent calls are safe as long as each
+    *    thread passes its own context.
+    *
+    * @param ctx: the calling thread's context
+    * @param input: data for model to make predictions on
+    *
+    * @return prediction
+    */
+   public double run(Context ctx, double[] input)
+   {
+      double[] h = ctx.h;
+
+      // for each node in the hidden layer
+      for (int j = 0; j < numActs[1]; j++)
+      {
+         h[j] = activate(AB1_Net.dot(input, weights1, j * numActs[0], numActs[0], useVector));
+      }
+
+      return activate(AB1_Net.dot(h, weights2, 0, numActs[1], useVector));
+   } // public double run(Context ctx, double[] input)
+
+   /*
+    * Applies the sigmoid the model was created with.
+    *
+    * @param input: theta value of an activation
+    *
+    * @return the activation
+    */
+   private double activate(double input)
+   {
+      return useTableSigmoid ? AB1_Net.tableSigmoid(input) : AB1_Net.sigmoid(input);
+   }
+
+   /*
+    * @return number of input activations the model expects
+    */
+   public int numInputs()
+   {
+      return numActs[0];
+   }
+
+   /*
+    * @return number of hidden activations in the model
+    */
+   public int numHidden()
+   {
+      return numActs[1];
+   }
+
+} // public final class AB1_Model
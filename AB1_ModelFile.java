@@ -0,0 +1,243 @@
+/*
+ * This file implements a versioned binary file format for A-B-1 network weights, so a trained network
+ * can be saved and reloaded without retraining or hardcoding its weights.
+ *
+ * File layout (all values little-endian):
+ *    int      magic: MAGIC, the bytes "AB1W"
+ *    int      version: VERSION
+ *    int      dtype: type of the weight values, DTYPE_FLOAT64 for doubles
+ *    int      nLayers: number of layers, 3 for an A-B-1 network
+ *    int[]    numActs: number of activations in each of the nLayers layers
+ *    padding to the next multiple of 8 bytes
+ *    double[] weights1: numActs[1] * numActs[0] weights, laid out as in AB1_Net
+ *    double[] weights2: numActs[2] * numActs[1] weights, laid out as in AB1_Net
+ *
+ * Files are read by memory-mapping them read-only with FileChannel.map. load and loadInto are fast
+ * loaders: the header is checked, and each weight block is copied out of the mapping into heap arrays in
+ * a single bulk transfer. The weights are stored in the same layout they have in memory, so nothing needs
+ * to be converted value by value. The copies are private to each JVM, though, so processes loading the
+ * same file this way share no memory. To share the weights' pages between JVMs on one host, serve from
+ * the mapping itself with AB1_MappedModel.open, which never copies the weights.
+ *
+ * Methods:
+ *    save: writes a configuration and its weights to a file.
+ *    header: builds the header for a configuration.
+ *    load: maps a file and copies its weights into an immutable AB1_Model.
+ *    loadInto: maps a file and copies its weights into an allocated AB1_Net with the same configuration.
+ *    map: maps a file and checks its header.
+ *    checkHeader: checks a header and the file length it implies.
+ *    readNumActs: reads the node configuration from a mapped header.
+ *    headerSize: size in bytes of the header for a given number of layers.
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public final class AB1_ModelFile
+{
+   /*
+    * MAGIC: first four bytes of every file, "AB1W".
+    * VERSION: current version of the file layout.
+    * DTYPE_FLOAT64: dtype value for 8-byte IEEE doubles.
+    */
+   static final int MAGIC = 0x57314241;
+   static final int VERSION = 1;
+   static final int DTYPE_FLOAT64 = 0;
+
+   private AB1_ModelFile()
+   {
+   }
+
+   /*
+    * Writes a network configuration and its weights to path, replacing any existing file.
+    *
+    * @param path: file to write
+    * @param numActs: configuration number of activations in each layer
+    * @param weights1: flat weights between input and hidden activations
+    * @param weights2: flat weights between hidden and output activations
+    */
+   public static void save(String path, int[] numActs, double[] weights1, double[] weights2) throws IOException
+   {
+      ByteBuffer header = header(numActs);
+      ByteBuffer buf = ByteBuffer.allocate(header.limit() + 8 * (weights1.length + weights2.length));
+      buf.order(ByteOrder.LITTLE_ENDIAN);
+
+      buf.put(header);
+      buf.asDoubleBuffer().put(weights1).put(weights2);
+      buf.position(0);
+
+      try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+      {
+         while (buf.hasRemaining())
+         {
+            channel.write(buf);
+         }
+      }
+   } // public static void save(String path, int[] numActs, double[] weights1, double[] weights2)
+
+   /*
+    * Builds the header of a file holding a network with the configuration numActs, padding included.
+    *
+    * @param numActs: configuration number of activations in each layer
+    *
+    * @return a little-endian buffer holding the header, positioned at its start
+    */
+   static ByteBuffer header(int[] numActs)
+   {
+      ByteBuffer header = ByteBuffer.allocate(headerSize(numActs.length)).order(ByteOrder.LITTLE_ENDIAN);
+
+      header.putInt(MAGIC).putInt(VERSION).putInt(DTYPE_FLOAT64).putInt(numActs.length);
+      for (int layer = 0; layer < numActs.length; layer++)
+      {
+         header.putInt(numActs[layer]);
+      }
+
+      header.position(0);
+      return header;
+   } // static ByteBuffer header(int[] numActs)
+
+   /*
+    * Loads a model from path.
+    *
+    * @param path: file to read
+    * @param useVector: whether the model uses the Vector API kernel
+    * @param useTableSigmoid: whether the model activates with AB1_Net.tableSigmoid; the file doesn't
+    *    record which sigmoid the network trained with
+    *
+    * @return a model holding the file's configuration and weights
+    */
+   public static AB1_Model load(String path, boolean useVector, boolean useTableSigmoid) throws IOException
+   {
+      MappedByteBuffer buf = map(path);
+      int[] numActs = readNumActs(buf);
+
+      double[] weights1 = new double[numActs[1] * numActs[0]];
+      double[] weights2 = new double[numActs[2] * numActs[1]];
+
+      buf.position(headerSize(numActs.length));
+      buf.asDoubleBuffer().get(weights1).get(weights2);
+
+      return AB1_Model.wrap(numActs, weights1, weights2, useVector, useTableSigmoid);
+   } // public static AB1_Model load(String path, boolean useVector, boolean useTableSigmoid)
+
+   /*
+    * Copies the weights in path into net, which must already be allocated with the same configuration.
+    *
+    * @param path: file to read
+    * @param net: network to copy the weights into
+    */
+   public static void loadInto(String path, AB1_Net net) throws IOException
+   {
+      MappedByteBuffer buf = map(path);
+      int[] numActs = readNumActs(buf);
+
+      if (!Arrays.equals(numActs, net.numActs))
+      {
+         throw new IOException(path + " holds a " + Arrays.toString(numActs) + " network, expected " +
+               Arrays.toString(net.numActs));
+      }
+
+      buf.position(headerSize(numActs.length));
+      DoubleBuffer weights = buf.asDoubleBuffer();
+      weights.get(net.weights1).get(net.weights2);
+   } // public static void loadInto(String path, AB1_Net net)
+
+   /*
+    * Maps path read-only and checks that its header and length are valid.
+    *
+    * @param path: file to map
+    *
+    * @return the mapped file, little-endian
+    */
+   static MappedByteBuffer map(String path) throws IOException
+   {
+      MappedByteBuffer buf;
+      Path file = Paths.get(path);
+
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+      {
+         buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      buf.order(ByteOrder.LITTLE_ENDIAN);
+
+      checkHeader(path, buf, buf.limit());
+
+      return buf;
+   } // static MappedByteBuffer map(String path)
+
+   /*
+    * Checks that a file's header is valid and that the file is as long as its header says it should be.
+    *    Only the header has to be in buf, so files too large for one ByteBuffer can be checked as well.
+    *
+    * @param path: file the header was read from, for error messages
+    * @param buf: little-endian buffer starting with the header
+    * @param length: length of the whole file in bytes
+    *
+    * @return the node configuration stored in the header
+    */
+   static int[] checkHeader(String path, ByteBuffer buf, long length) throws IOException
+   {
+      if (buf.limit() < 16 || buf.getInt(0) != MAGIC)
+      {
+         throw new IOException(path + " is not an AB1 weights file");
+      }
+      if (buf.getInt(4) != VERSION)
+      {
+         throw new IOException(path + " has unsupported version " + buf.getInt(4));
+      }
+      if (buf.getInt(8) != DTYPE_FLOAT64)
+      {
+         throw new IOException(path + " has unsupported dtype " + buf.getInt(8));
+      }
+      if (buf.getInt(12) != 3 || buf.limit() < headerSize(3))
+      {
+         throw new IOException(path + " has " + buf.getInt(12) + " layers, expected 3");
+      }
+
+      int[] numActs = readNumActs(buf);
+      long expected = headerSize(3) + 8L * ((long) numActs[1] * numActs[0] + (long) numActs[2] * numActs[1]);
+
+      if (length != expected)
+      {
+         throw new IOException(path + " is " + length + " bytes, expected " + expected);
+      }
+
+      return numActs;
+   } // static int[] checkHeader(String path, ByteBuffer buf, long length)
+
+   /*
+    * @param buf: mapped file with a valid header
+    *
+    * @return the node configuration stored in the header
+    */
+   static int[] readNumActs(ByteBuffer buf)
+   {
+      int[] numActs = new int[buf.getInt(12)];
+
+      for (int layer = 0; layer < numActs.length; layer++)
+      {
+         numActs[layer] = buf.getInt(16 + 4 * layer);
+      }
+
+      return numActs;
+   } // static int[] readNumActs(ByteBuffer buf)
+
+   /*
+    * @param nLayers: number of layers in the network
+    *
+    * @return size in bytes of the header, rounded up so the weights start 8-byte aligned
+    */
+   static int headerSize(int nLayers)
+   {
+      return (16 + 4 * nLayers + 7) & ~7;
+   }
+
+} // public final class AB1_ModelFile
@@ -11,17 +11,24 @@
  * Methods:
  *    main: initializes instance of AB1_Net class and calls functions to either run or train an AB1 network.
  *    parametrize: set parametrization values (the AB1 network parameters are hardcoded inside the function).
+ *    parametrize_train: set the additional parametrization values used when training.
  *    echoparams: prints out the network parameters set in the parametrize function (described above) for 
  *       user's reference.
  *    allocate_train: allocates space necessary for arrays used when training the AB1 network (includes 
- *       deriv/gradient arrays that aren't used in allocate_run).
+ *       the mini-batch and derivative arrays that aren't used in allocate_run).
  *    allocate_run: allocates space necessary for arrays used when running the AB1 network.
  *    populateRandom: randomly populates weights in the range (minRand, maxRand) using generate_random_value.
- *    generate_random_value: returns a random value in the range (minRand, maxRand).
+ *    generate_random_value: returns a random value in the range (minRand, maxRand) from the network's own
+ *       random number generator, seeded with seed.
  *    populateHardCode: populates weights manually, can be modified by the user.
- *    train: trains the AB1 network using gradient descent.
+ *    train: trains the AB1 network using gradient descent, on in-memory cases, sparse cases (see
+ *       AB1_SparseBatch) or cases streamed from a data file (see AB1_DataFile).
+ *    activate: applies the activation function chosen in parametrize (exact or table sigmoid) to the input.
  *    sigmoid: applies a sigmoid to the input.
+ *    tableSigmoid: applies a sigmoid to the input using a lookup table with linear interpolation.
+ *    buildSigmoidTable: fills the lookup table used by tableSigmoid.
  *    derive_sigmoid: applies the derivative of a sigmoid function to the input.
+ *    derive_sigmoid_act: calculates the sigmoid derivative from an already computed sigmoid output.
  *    reportTrainingResults: prints out the results from training the model.
  *    run: takes in input and runs the network based on its current weights, uses theta variable.
  *    run_train: takes in input and runs the network based on its current weights, uses theta array. used in
@@ -29,7 +36,55 @@
  *    reportRunningResults: reports results from running.
  *    runTestCasesRun: runs network on specified input, returns predictions
  *    runTestCasesTrain: runs network on specified input, returns predictions
+ *    runBatch: runs network on a batch of inputs at once using a cache-blocked matrix multiply.
+ *       an overload runs only the first rows of the batch array.
+ *    runSparse: runs network on a sparse input, or on every case of a sparse batch, touching only the
+ *       weights of the non-zero inputs.
+ *    dot: dot product of an activation array with one contiguous row of a flat weight array.
+ *    tick: reads the clock for telemetry, if it is on.
+ *    checkpoint: hands a snapshot of the training state to the checkpoint writer when one is due.
+ *    validate: hands a snapshot of the weights to the validator when one is due.
+ *    holdOut: moves the last fraction of the training cases into the validation cases.
+ *    keepTraining: whether training should run another iteration.
+ *    reportStop: prints why training stopped.
+ *    earlyStop: whether the validator has asked training to stop early.
+ *    backpropCase: computes the psi values for one case of a mini-batch and stores them in the batch arrays.
+ *    updateWeights: sums the derivatives over a mini-batch one weight row at a time and has the optimizer
+ *       apply each row to the weights as soon as it is summed (see AB1_Optimizer).
+ *    updateWeightsSparse: updateWeights for a mini-batch of sparse cases, updating only the weights of
+ *       inputs that are non-zero somewhere in the batch.
+ *    saveWeights: saves the weights to a binary file (see AB1_ModelFile).
+ *    loadWeights: loads weights from a binary file written by saveWeights.
+ *    resume: restores the training state from a checkpoint file (see AB1_Checkpoint).
+ *    toModel: takes an immutable snapshot of the weights for concurrent inference (see AB1_Model).
+ *    toFloatModel: exports the weights into an immutable float32 model (see AB1_FloatModel).
+ *    toInt8Model: exports the weights into an immutable int8-quantized model (see AB1_Int8Model).
+ *    toCompiledModel: compiles the weights into a class with unrolled loops (see AB1_CompiledModel).
+ *    toSparseModel: prunes the smallest weights into an immutable sparse model (see AB1_SparseModel).
+ *    toSparseModelAt: prunes the weights at or below a magnitude into an immutable sparse model.
+ *    reportExportAccuracy: reports how far the float32, int8 and compiled models' predictions are from the
+ *       network's.
+ *    reportPruning: reports the size and error of a pruned model next to the network's.
+ *    dotRange: dot product of a range of an activation array with a range of a flat weight array.
+ *    findVectorKernel: looks up a Vector API dot product kernel in AB1_VectorKernel, if it is available.
+ *    callOffHeap: calls one of AB1_OffHeapNet's entry points for main through a method handle.
+ *
+ * Weights are stored one flat, row-major double[] per pair of layers, with the row for each node in the
+ *    later layer holding its incoming weights contiguously, so that theta accumulation is a unit-stride
+ *    dot product. To use the Vector API kernel, compile AB1_VectorKernel.java and run with
+ *    --add-modules jdk.incubator.vector; otherwise the scalar loop in dot is used. Setting offHeap uses
+ *    AB1_OffHeapNet, which needs --enable-preview on JDK 21. It is only reached through a method handle,
+ *    so this file compiles and runs without --enable-preview.
  */
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
 public class AB1_Net 
 {
    /*
@@ -49,17 +104,66 @@ public class AB1_Net
     * Training associated variables.
     * minRand: minimum value when generating random values.
     * maxRand: maximum value when generating random values.
+    * seed: seed of the random number generator used by populateRandom. printed by echoparams, so setting
+    *    seed to a printed value reproduces that run's starting weights exactly.
     * lambda: size of 'step' model takes when updating weights in gradient descent.
+    * optimizer: turns the derivatives of each mini-batch into changes to the weights (see AB1_Optimizer).
+    *    if null when allocate_train is called, plain gradient descent with lambda is used.
     * maxError: error limit; when training, model will exit if its error <= maxError.
+    * batchSize: number of cases whose gradients are summed before the weights are updated. a batchSize
+    *    of 1 updates the weights after every case.
+    * nThreads: number of threads to train with. if greater than 1, each mini-batch is split across
+    *    threads by AB1_ParallelTrainer, which only helps with batches of hundreds of cases. if batchSize is
+    *    smaller than nThreads, training warns and runs on one thread.
+    *
+    * useVector: if true, theta accumulation uses the Vector API kernel when it is available.
+    * useTableSigmoid: if true, activations are computed with tableSigmoid instead of Math.exp.
+    * offHeap: if true, main keeps the weights off the Java heap with AB1_OffHeapNet: training moves the
+    *    weights off the heap and trains, reports and saves them there, and running maps weightsIn instead
+    *    of loading it onto the heap. Checkpoints aren't written, and the export and pruning reports are
+    *    skipped.
+    *
+    * weightsIn: if not null, file (in the AB1_ModelFile format) to load the weights from when running.
+    * weightsOut: if not null, file to save the weights to after training.
+    * trainingFile: if not null, file (in the AB1_DataFile format) to stream the training cases from
+    *    instead of training on inputs and outputs.
+    * chunkCases: number of cases read from trainingFile at a time.
+    * checkpointFile: if not null, file (in the AB1_Checkpoint format) that training state is saved to
+    *    every checkpointEvery iterations and at the end of training. if the file already exists when
+    *    training starts, training resumes from it, with early stopping starting over.
+    * checkpointEvery: number of iterations between checkpoints.
+    * validationInputs, validationOutputs: if not null, cases held out of training that the weights are
+    *    scored on every validateEvery iterations in the background (see AB1_Validator).
+    * validationSplit: if greater than 0, fraction of the in-memory training cases that main moves into
+    *    validationInputs and validationOutputs before training (see holdOut). 0 holds nothing out.
+    * validateEvery: number of iterations between validations.
+    * patience: number of validations in a row without improvement after which training stops early.
+    * pruneSparsity: if greater than 0, fraction of weights1 that is pruned by magnitude after training to
+    *    export an AB1_SparseModel, whose accuracy is then reported. 0 turns pruning off.
+    * pruneThreshold: if greater than 0, prune every weight of weights1 whose magnitude is at or below it
+    *    instead of a fixed fraction. Takes precedence over pruneSparsity; 0 leaves pruneSparsity in charge.
+    * telemetry: if not null, training reports its progress and the time spent in each phase to it (see
+    *    AB1_Telemetry), e.g. AB1_Telemetry.register("AB1_Net"). null, the default, turns telemetry off.
     *
     * Data:
     * outputs: the expected model outputs.
     * inputs: input data for the network.
     */
-   boolean training;
-   int nLayers, nCases, nInEachInput, maxIter;
+   boolean training, useVector, useTableSigmoid, offHeap;
+   int nLayers, nCases, nInEachInput, maxIter, batchSize, nThreads;
    int[] numActs;
    double minRand, maxRand, lambda, maxError;
+   long seed;
+   int chunkCases;
+   String weightsIn, weightsOut, trainingFile, checkpointFile;
+   int checkpointEvery;
+   double[][] validationInputs;
+   double[] validationOutputs;
+   double validationSplit;
+   int validateEvery, patience;
+   double pruneSparsity, pruneThreshold;
+   AB1_Optimizer optimizer;
+   AB1_Telemetry telemetry;
 
    double[] outputs;
    double[][] inputs;
@@ -76,25 +180,85 @@ public class AB1_Net
     * psi: psi values for output node.
     *    used in training and not running.
     *
-    * weights1: the weight values between input and hidden activations.
-    * weights2: the weight values between hidden and output activations.
+    * weights1: the weight values between input and hidden activations. the weight from input node k
+    *    to hidden node j is stored at weights1[j * numActs[0] + k].
+    * weights2: the weight values between hidden and output activations. the weight from hidden node j
+    *    to output node i is stored at weights2[i * numActs[1] + j].
     *
     * runtheta: used to store theta value exclusively in running
     *
-    * The following four arrays are used exclusively in training and not running.
-    * gradient1: change in weights1 in each iteration for training.
-    * gradient2: change in weights2 in each iteration for training.
-    * deriv1: derivatives before lambda is applied for weights1.
-    * deriv2: derivatives before lambda is applied for weights2.
+    * The following two arrays are used exclusively in training and not running. The optimizer updates
+    *    the weights straight from them, so no weight-sized derivative or gradient matrix is kept.
+    * rowDeriv: derivatives of the row of weights1 currently being updated, numActs[0] values.
+    * deriv2: derivatives of weights2, numActs[1] values.
+    *
+    * The following three arrays hold the values of each case in the current mini-batch, with case b of
+    *    the batch at row b, and are used exclusively in training.
+    * batchH: hidden activations, batchSize x numActs[1].
+    * batchPsi: psi values for hidden activations, batchSize x numActs[1].
+    * batchPsiOut: psi values for the output activation, one per case.
+    *
+    * streamInputs: inputs of the current mini-batch when streaming from a data file, batchSize x
+    *    nInEachInput.
+    * streamOutputs: expected outputs of the current mini-batch when streaming from a data file.
+    *
+    * runBatchTheta: theta values, then hidden activations, of every case passed to runBatch, one row
+    *    of numActs[1] values per case. grown as needed and reused between calls.
+    *
+    * The following are used exclusively when training on sparse cases.
+    * sparseCols: the inputs that are non-zero in at least one case of the current mini-batch.
+    * sparseColCount: number of entries of sparseCols in use.
+    * sparseMark: for each input, the value of sparseStamp when it was last added to sparseCols.
+    * sparseStamp: number of the current sparse mini-batch, so sparseMark never needs clearing.
     */
    double[] totalError; 
    double[] a, h, theta, omegas, psi;
    double runtheta;
-   double[][] weights1, weights2, gradient1, gradient2, deriv1, deriv2;
+   double[] weights1, weights2, rowDeriv, deriv2;
+   double[] batchH, batchPsi, batchPsiOut;
+   double[][] streamInputs;
+   double[] streamOutputs;
+   double[] runBatchTheta;
+   int[] sparseCols, sparseMark;
+   int sparseColCount, sparseStamp;
+
+   /*
+    * Tile sizes for the blocked matrix multiply in runBatch: the number of cases, hidden nodes and input
+    *    nodes covered by one tile. A tile of inputs and a tile of weights1 rows fit in L2 together.
+    */
+   static final int TILE_CASES = 16;
+   static final int TILE_HIDDEN = 64;
+   static final int TILE_INPUTS = 128;
+
+   /*
+    * VECTOR_DOT, VECTOR_DOT_RANGE: handles to AB1_VectorKernel.dot and dotRange, or null if the Vector
+    *    API is not available.
+    */
+   static final MethodHandle VECTOR_DOT = findVectorKernel("dot", MethodType.methodType(double.class,
+         double[].class, double[].class, int.class, int.class));
+   static final MethodHandle VECTOR_DOT_RANGE = findVectorKernel("dotRange", MethodType.methodType(
+         double.class, double[].class, int.class, double[].class, int.class, int.class));
+
+   /*
+    * Lookup table for tableSigmoid.
+    * SIGMOID_RANGE: the table covers inputs in [-SIGMOID_RANGE, SIGMOID_RANGE]; outside it the sigmoid is
+    *    within 1.2E-7 of 0 or 1 and is clamped.
+    * SIGMOID_STEPS: table entries per unit of input.
+    * SIGMOID_TABLE: sigmoid values at every 1 / SIGMOID_STEPS from -SIGMOID_RANGE to SIGMOID_RANGE.
+    */
+   static final double SIGMOID_RANGE = 16.0;
+   static final int SIGMOID_STEPS = 256;
+   static final double[] SIGMOID_TABLE = buildSigmoidTable();
 
    /*
     * Error associated variables used during training.
+    * random: the network's random number generator, created from seed by populateRandom. each network
+    *    has its own, so networks trained on different threads neither share nor contend for one.
+    *
     * iteration: the number of iterations the model has gone through.
+    * startIteration: the iteration train starts counting from. 0 unless resuming from a checkpoint.
+    * checkpoints: writes checkpoints in the background while training, if checkpointFile is set.
+    * validator: scores the weights in the background while training, if validationInputs is set.
     *
     * avgErr: the average model error within an iteration.
     *
@@ -102,8 +266,11 @@ public class AB1_Net
     * psiOut: psi value of the output activation.
     * caseError: model's error for a specific test case.
     */
-   int iteration;
+   SplittableRandom random;
+   int iteration, startIteration;
    double avgErr;
+   AB1_Checkpoint checkpoints;
+   AB1_Validator validator;
    double thetaOut, psiOut, caseError;
 
    /*
@@ -113,7 +280,7 @@ public class AB1_Net
     * 
     * @param String[] args -- command line arguments
     */
-   public static void main(String[] args)
+   public static void main(String[] args) throws IOException
    {
       AB1_Net net = new AB1_Net();
 
@@ -130,9 +297,97 @@ public class AB1_Net
           *    hardcoded by the user like in running. optimize performance in train.
           */
          net.populateRandom();
-         net.train(net.inputs, net.outputs);
+
+         if (net.validationSplit > 0.0 && net.trainingFile == null) // hold out cases for early stopping
+         {
+            net.holdOut(net.validationSplit);
+            System.out.println("Holding out " + net.validationOutputs.length + " cases for validation, " +
+                  "training on " + net.nCases + ".");
+         }
+
+         if (net.checkpointFile != null)
+         {
+            if (Files.exists(Paths.get(net.checkpointFile))) // pick up where the last run stopped
+            {
+               net.resume(net.checkpointFile);
+               System.out.println("Resuming from " + net.checkpointFile + " at iteration " +
+                     net.startIteration);
+            }
+
+            if (net.offHeap && net.trainingFile == null)
+            {
+               System.out.println("Checkpoints aren't written while training off-heap.");
+            }
+            else
+            {
+               net.checkpoints = new AB1_Checkpoint(net.checkpointFile, net);
+            }
+         } // if (net.checkpointFile != null)
+
+         if (net.validationInputs != null)
+         {
+            net.validator = new AB1_Validator(net, net.validationInputs, net.validationOutputs, net.patience);
+         }
+
+         if (net.trainingFile != null) // stream the cases instead of holding them in memory
+         {
+            try (AB1_DataFile data = new AB1_DataFile(net.trainingFile, net.chunkCases))
+            {
+               net.train(data);
+            }
+         }
+         else if (net.offHeap) // the weights leave the heap, so the results are reported from off-heap too
+         {
+            callOffHeap("trainOffHeap", net);
+            return;
+         }
+         else if (net.nThreads > 1 && net.batchSize >= net.nThreads) // split each mini-batch across threads
+         {
+            AB1_ParallelTrainer trainer = new AB1_ParallelTrainer(net, net.nThreads);
+            trainer.train(net.inputs, net.outputs);
+            trainer.shutdown();
+         }
+         else
+         {
+            if (net.nThreads > 1) // AB1_ParallelTrainer only splits the cases within a mini-batch
+            {
+               System.out.println("Mini-batch size " + net.batchSize + " is smaller than the " +
+                     net.nThreads + " training threads, so training runs on one thread.");
+            }
+            net.train(net.inputs, net.outputs);
+         }
+
+         if (net.validator != null) // restores the best weights if training stopped early
+         {
+            net.validator.finish(net);
+         }
+
+         if (net.checkpoints != null) // after the validator, so the final snapshot holds the weights kept
+         {
+            net.checkpoints.finish(net);
+         }
 
          net.reportTrainingResults(net.inputs, net.outputs, net.runTestCasesTrain(net.inputs));
+         net.reportExportAccuracy(net.inputs);
+
+         if (net.pruneThreshold > 0.0)
+         {
+            net.reportPruning(net.inputs, net.outputs, net.toSparseModelAt(net.pruneThreshold));
+         }
+         else if (net.pruneSparsity > 0.0)
+         {
+            net.reportPruning(net.inputs, net.outputs, net.toSparseModel(net.pruneSparsity));
+         }
+
+         if (net.telemetry != null)
+         {
+            System.out.println(net.telemetry);
+         }
+
+         if (net.weightsOut != null)
+         {
+            net.saveWeights(net.weightsOut);
+         }
       }    // if (net.training)
 
       else // running model based on weights pre-set by the user
@@ -142,7 +397,19 @@ public class AB1_Net
          // populate input/output and weights based on user input
          net.populateHardCode();
 
-         net.reportRunningResults(net.inputs, net.outputs, net.runTestCasesRun(net.inputs));
+         if (net.offHeap && net.weightsIn != null) // run straight from the mapped weights file
+         {
+            callOffHeap("runOffHeap", net);
+         }
+         else
+         {
+            if (net.weightsIn != null) // replace the hardcoded weights with saved ones
+            {
+               net.loadWeights(net.weightsIn);
+            }
+
+            net.reportRunningResults(net.inputs, net.outputs, net.runTestCasesRun(net.inputs));
+         }
       }  // else
 
    }     // public static void main(String[] args)
@@ -153,26 +420,63 @@ public class AB1_Net
    public void parametrize()
    {
       training = false;
+      useVector = true;
+      useTableSigmoid = false;
+      offHeap = false;
+
+      weightsIn = null;
+      weightsOut = null;
+      trainingFile = null;
+      checkpointFile = null;
+      validationInputs = null;
+      validationOutputs = null;
+      telemetry = null;
+      seed = System.nanoTime();
       
       // Currently a 3-layer A-B-1 network.
       nLayers = 3;
-      numActs = new int[]{2, 1, 1};
+      numActs = new int[]{2, 2, 1};
 
       nCases = 4;
       nInEachInput = 2;
 
       if (training) // define additional necessary parameters if training
       { 
-         minRand = -1.5;
-         maxRand = 1.5;
-
-         maxIter = 100000;
-         lambda = 0.3;
-         maxError = 2E-4;
-      }  // if (training)
+         parametrize_train();
+      }
 
    } // public void parametrize()
 
+   /*
+    * Defines the parameters used only when training. Called by parametrize in training mode, and by
+    *    AB1_Sweep to start each network of a sweep from these defaults.
+    */
+   public void parametrize_train()
+   {
+      minRand = -1.5;
+      maxRand = 1.5;
+
+      maxIter = 100000;
+      lambda = 0.3;
+      maxError = 2E-4;
+      batchSize = 1;
+      nThreads = 1;
+      chunkCases = 65536;
+      checkpointEvery = 10000;
+      validationSplit = 0.0;
+      validateEvery = 1000;
+      patience = 10;
+      pruneSparsity = 0.0;
+      pruneThreshold = 0.0;
+
+      /*
+       * Alternatives: new AB1_Optimizer.Momentum(lambda, 0.9), new AB1_Optimizer.RmsProp(lambda, 0.9,
+       *    1E-8) or new AB1_Optimizer.Adam(lambda, 0.9, 0.999, 1E-8). RMSProp and Adam usually want a
+       *    much smaller lambda, e.g. 0.01.
+       */
+      optimizer = new AB1_Optimizer.Sgd(lambda);
+   } // public void parametrize_train()
+
    /*
     * Prints out model parameters (number of layers, node configuration, randomization range, etc
     *    state (training or running) for user's reference.
@@ -196,9 +500,18 @@ public class AB1_Net
          System.out.println("Model is in training mode.");
          System.out.println("Training on " + nCases + " cases.");
 
+         System.out.println("Random seed: " + seed);
          System.out.println("Lambda: " + lambda);
+         System.out.println("Optimizer: " + optimizer);
          System.out.println("Error Threshold: " + maxError);
          System.out.println("Max number of iterations is: " + maxIter);
+         System.out.println("Mini-batch size: " + batchSize);
+         System.out.println("Training threads: " + nThreads);
+         System.out.println("Off-heap weights: " + offHeap);
+         System.out.println("Validation split: " + validationSplit);
+         System.out.println("Pruning sparsity: " + pruneSparsity);
+         System.out.println("Pruning threshold: " + pruneThreshold);
+         System.out.println("Telemetry: " + ((telemetry != null) ? "on" : "off"));
    
       }     // if training
       else  // running
@@ -233,33 +546,37 @@ public class AB1_Net
 
       /* 
        * AB1 networks guaranteed to have exactly 3 layers; since 3D matrices aren't allowed
-       *    in the design document, store the weights, gradients, and derivatives in two 2D 
-       *    matrices apiece, one for each pair of consecutive layers.
+       *    in the design document, store the weights in one flat array apiece for each pair
+       *    of consecutive layers. Derivatives are only ever held one weight row at a time.
        */
 
       // in between the input and hidden nodes
-      weights1 = new double[numActs[0]][numActs[1]];
-      gradient1 = new double[numActs[0]][numActs[1]];
-      deriv1 = new double[numActs[0]][numActs[1]];
-
-      for (int k = 0; k < numActs[0]; k++)
-      {
-         weights1[k] = new double[numActs[1]];
-         gradient1[k] = new double[numActs[1]];
-         deriv1[k] = new double[numActs[1]];
-      }
+      weights1 = new double[numActs[1] * numActs[0]];
+      rowDeriv = new double[numActs[0]];
 
       // in between the hidden and output nodes
-      weights2 = new double[numActs[1]][numActs[2]]; 
-      gradient2 = new double[numActs[1]][numActs[2]];
-      deriv2 = new double[numActs[1]][numActs[2]];
+      weights2 = new double[numActs[2] * numActs[1]]; 
+      deriv2 = new double[numActs[2] * numActs[1]];
 
-      for (int j = 0; j < numActs[1]; j++)
+      // optimizer state, in the same layout as weights1 and weights2
+      if (optimizer == null)
       {
-         weights2[j] = new double[numActs[2]];
-         gradient2[j] = new double[numActs[2]];
-         deriv2[j] = new double[numActs[2]];
+         optimizer = new AB1_Optimizer.Sgd(lambda);
       }
+      optimizer.allocate(weights1.length, weights2.length);
+
+      // values for each case in a mini-batch
+      batchH = new double[batchSize * numActs[1]];
+      batchPsi = new double[batchSize * numActs[1]];
+      batchPsiOut = new double[batchSize];
+
+      // mini-batch copied out of the current chunk when streaming
+      streamInputs = new double[batchSize][nInEachInput];
+      streamOutputs = new double[batchSize];
+
+      // inputs touched by the current mini-batch when training on sparse cases
+      sparseCols = new int[numActs[0]];
+      sparseMark = new int[numActs[0]];
 
       totalError = new double[nCases];
    } // public void allocate_train()
@@ -279,23 +596,13 @@ public class AB1_Net
 
       // arrays corresponding with input activation and hidden activations
       a = new double[numActs[0]]; 
-      weights1 = new double[numActs[0]][];
+      weights1 = new double[numActs[1] * numActs[0]];
 
       // arrays corresponding with hidden activations and output activations
       runtheta = 0.0;
 
       h = new double[numActs[1]]; 
-      weights2 = new double[numActs[1]][];
- 
-      for (int k = 0; k < numActs[0]; k++) 
-      { 
-         weights1[k] = new double[numActs[1]]; 
-      }
-
-      for (int j = 0; j < numActs[1]; j++) 
-      { 
-         weights2[j] = new double[numActs[2]]; 
-      }
+      weights2 = new double[numActs[2] * numActs[1]];
    } // allocate_run()
 
    /*
@@ -318,13 +625,14 @@ public class AB1_Net
       outputs[2] = 1.0;
       outputs[3] = 0.0;
 
-      // populate weights randomly
+      // populate weights randomly, from a generator of our own seeded with seed
+      random = new SplittableRandom(seed);
       for (int currNode = 0; currNode < numActs[0]; currNode++)    // each node in input layer
       {
          for (int nextNode = 0; nextNode < numActs[1]; nextNode++) // each node in hidden layer
          {
             // fill in each weight in weights1 with a random value
-            weights1[currNode][nextNode] = generate_random_value();
+            weights1[nextNode * numActs[0] + currNode] = generate_random_value();
          }
       } // for (int currNode = 0; currNode < numActs[0]; currNode++)
 
@@ -333,7 +641,7 @@ public class AB1_Net
          for (int nextNode = 0; nextNode < numActs[2]; nextNode++) // each node in output layer
          {
             // fill in each weight in weights2 with a random value
-            weights2[currNode][nextNode] = generate_random_value();
+            weights2[nextNode * numActs[1] + currNode] = generate_random_value();
          }
       } // for (int currNode = 0; currNode < numActs[1]; currNode++)
 
@@ -346,7 +654,7 @@ public class AB1_Net
     */
    public double generate_random_value()
    {
-      return (maxRand - minRand) * Math.random() + minRand;
+      return (maxRand - minRand) * random.nextDouble() + minRand;
    }
 
    /*
@@ -369,18 +677,19 @@ public class AB1_Net
       outputs[2] = 1.0;
       outputs[3] = 0.0;
 
-      // populate weights
-      weights1[0][0] = 0.1;
-      weights1[1][0] = 0.2;
-      weights1[0][1] = 0.3;
-      weights1[1][1] = 0.4;
+      // populate weights (row j holds the weights into hidden node j)
+      weights1[0] = 0.1;
+      weights1[1] = 0.2;
+      weights1[2] = 0.3;
+      weights1[3] = 0.4;
 
-      weights2[0][0] = 0.5;
-      weights2[1][0] = 0.6;
+      weights2[0] = 0.5;
+      weights2[1] = 0.6;
    } // public void populateHardCode()
 
    /*
-    * Trains the network using gradient descent.
+    * Trains the network using mini-batch gradient descent. Within a batch the weights stay fixed, so every
+    *    case is run forward first and the weights are updated once with the gradients summed over the batch.
     *
     * @param inputs: input data used to train network
     * @param outputs: expected outputs for network
@@ -388,59 +697,46 @@ public class AB1_Net
    public void train(double[][] inputs, double[] outputs)
    {
       double predicted, omega;
+      int batchCases;
+      long batchStartTime, forwardEnd;
       
-      // reset iteration/errors to 0
-      iteration = 0;
-      avgErr = 0.0;
+      // start from 0, or from the checkpoint's iteration and error if resuming
+      iteration = startIteration;
 
-      /* 
-       * while under max number of iterations allowed or maxError threshold isn't
-       *    reached, keep training.
-       */
-      while ((iteration == 0) || ((iteration < maxIter) && (avgErr > maxError)))
+      while (keepTraining())
       {
-         // iterate through each case in the training data
-         for (int case_ = 0; case_ < inputs.length; case_++)
+         if (telemetry != null)
          {
-            predicted = run_train(inputs[case_]);
-            
-            omega = outputs[case_] - predicted;
+            telemetry.startEpoch();
+         }
 
-            psiOut = omega * derive_sigmoid(thetaOut);
+         // iterate through each mini-batch in the training data
+         for (int batchStart = 0; batchStart < inputs.length; batchStart += batchSize)
+         {
+            batchCases = Math.min(batchSize, inputs.length - batchStart);
+            batchStartTime = tick();
 
-            for (int act_j = 0; act_j < numActs[1]; act_j++)    // for each activation in hidden layer
+            for (int b = 0; b < batchCases; b++) // for each case in the batch
             {
-               // calculate derivative + change in weights
-               deriv2[act_j][0] = -h[act_j] * psiOut;
-               gradient2[act_j][0] = -lambda * deriv2[act_j][0];
-               
-               omegas[act_j] = psiOut * weights2[act_j][0];
+               predicted = run_train(inputs[batchStart + b]);
+            
+               omega = outputs[batchStart + b] - predicted;
 
-               psi[act_j] = omegas[act_j] * derive_sigmoid(theta[act_j]);
+               backpropCase(b, omega, predicted);
 
-               for (int act_k = 0; act_k < numActs[0]; act_k++) // for each activation in input layer
-               {
-                  // calculate derivative + change in weights
-                  deriv1[act_k][act_j] = -a[act_k] * psi[act_j];
-                  gradient1[act_k][act_j] = -lambda * deriv1[act_k][act_j];
-               }
+               caseError = (omega * omega) / 2.0;
+               totalError[batchStart + b] = caseError;
+            }
 
-            } // for (int act_j = 0; act_j < numActs[1]; act_j++)
+            forwardEnd = tick();
+            updateWeights(inputs, batchStart, batchCases);
 
-            // update weights
-            for (int k = 0; k < numActs[0]; k++)
+            if (telemetry != null)
             {
-               for (int j = 0; j < numActs[1]; j++)
-               {
-                  weights1[k][j] += gradient1[k][j];
-                  weights2[j][0] += gradient2[j][0];
-               }
-            } // for (int k = 0; k < numActs[0]; k++)
+               telemetry.addPhases(forwardEnd - batchStartTime, tick() - forwardEnd);
+            }
 
-            caseError = (omega * omega) / 2.0;
-            totalError[case_] = caseError;
-
-         } // for (int case_ = 0; case_ < inputs.length; case_++)
+         } // for (int batchStart = 0; batchStart < inputs.length; batchStart += batchSize)
 
          iteration++;
 
@@ -453,177 +749,709 @@ public class AB1_Net
 
          avgErr /= nCases;
 
-      } // while ((iteration == 0) || ((iteration < maxIter) && (avgErr > maxError)))
+         if (telemetry != null)
+         {
+            telemetry.endEpoch(iteration, avgErr, inputs.length);
+         }
 
-      if (iteration >= maxIter)
-      {
-         System.out.println("Reached max iterations allowed for training.");
-      } // if (iteration >= maxIter)
+         checkpoint();
+         validate();
 
-      else if (avgErr <= maxError)
-      {
-         System.out.println(avgErr);
-         System.out.println(maxError);
-         System.out.println("Reached desired error value.");
-      } // else if (avgErr <= maxError)
+      } // while (keepTraining())
 
-   } // public void train(double[][] inputs, double[] outputs)
+      reportStop();
 
-   /*
-    * Calculates sigmoid based on input
-    * 
-    * @param input: the value that we apply the sigmoid function to
-    *
-    * @return the sigmoid of input
-    */
-   public double sigmoid(double input)
-   {
-      return 1.0 / (1.0 + Math.exp(-input));
-   }
+   } // public void train(double[][] inputs, double[] outputs)
 
    /*
-    * Calculates the sigmoid derivative based on input
+    * Trains the network on sparse cases, stopping under the same conditions as train(inputs, outputs).
+    *    Each case is run forward with runSparse, and each mini-batch only computes and applies the
+    *    gradients of the weights1 entries whose input is non-zero in at least one of its cases; the
+    *    gradients of every other weights1 entry are zero. With an optimizer that keeps state (momentum,
+    *    RMSProp, Adam) the state of an untouched weight is left as is until its input next appears, rather
+    *    than decayed every batch.
     *
-    * @param input: the value that we apply the sigmoid derivative function to
+    * @param inputs: sparse input data used to train network
+    * @param outputs: expected outputs for network
     *
-    * @return the sigmoid derivative of the input
+    * @throws IllegalArgumentException if inputs doesn't hold nCases cases
     */
-   public double derive_sigmoid(double input)
+   public void train(AB1_SparseBatch inputs, double[] outputs)
    {
-      double sigmoid = sigmoid(input);
-      return sigmoid * (1.0 - sigmoid);
-   }
+      double predicted, omega;
+      int batchCases;
+      long batchStartTime, forwardEnd;
 
-   /*
-    * Display model performance to user.
-    * 
-    * @param inputs: training data
-    * @param expected_outputs: expected outputs
-    * @param outputs: model's calculated predictions
-    */
-   public void reportTrainingResults(double[][] inputs, double[] expected_outputs, double[] outputs)
-   {
-      System.out.println("Total number of iterations: " + iteration);
-      System.out.println("Average error: " + avgErr);
+      if (inputs.nCases() != nCases)
+      {
+         throw new IllegalArgumentException("the sparse batch has " + inputs.nCases() +
+               " cases, but the network was set up for " + nCases);
+      }
 
-      // iterate through each case in input data and print out prediction
-      for (int t_case = 0; t_case < expected_outputs.length; t_case++)
+      iteration = startIteration;
+
+      while (keepTraining())
       {
-         System.out.print("Input: ");
-         for (int in = 0; in < inputs[t_case].length; in++)
+         if (telemetry != null)
          {
-            System.out.print(inputs[t_case][in] + " ");
+            telemetry.startEpoch();
          }
 
-         System.out.println();
-         System.out.println("Expected Output: " + expected_outputs[t_case]);
-         System.out.println("Predicted Output: " + run_train(inputs[t_case])); 
+         // iterate through each mini-batch in the training data
+         for (int batchStart = 0; batchStart < nCases; batchStart += batchSize)
+         {
+            batchCases = Math.min(batchSize, nCases - batchStart);
+            batchStartTime = tick();
 
-      } // for (int trainCases = 0; trainCases < inputs.length; trainCases++)
+            for (int b = 0; b < batchCases; b++) // for each case in the batch
+            {
+               predicted = runSparse(inputs.index, inputs.value, inputs.rowStart[batchStart + b],
+                     inputs.rowStart[batchStart + b + 1]);
 
-   } // public void reportTrainingResults(double[][] inputs, double[] expected_outputs, double[] outputs)
+               omega = outputs[batchStart + b] - predicted;
+
+               backpropCase(b, omega, predicted);
+
+               caseError = (omega * omega) / 2.0;
+               totalError[batchStart + b] = caseError;
+            }
+
+            forwardEnd = tick();
+            updateWeightsSparse(inputs, batchStart, batchCases);
+
+            if (telemetry != null)
+            {
+               telemetry.addPhases(forwardEnd - batchStartTime, tick() - forwardEnd);
+            }
+
+         } // for (int batchStart = 0; batchStart < nCases; batchStart += batchSize)
+
+         iteration++;
+
+         // calculate average error
+         avgErr = 0.0;
+         for (int train_case = 0; train_case < nCases; train_case++)
+         {
+            avgErr += totalError[train_case];
+         }
+
+         avgErr /= nCases;
+
+         if (telemetry != null)
+         {
+            telemetry.endEpoch(iteration, avgErr, nCases);
+         }
+
+         checkpoint();
+         validate();
+
+      } // while (keepTraining())
+
+      reportStop();
+
+   } // public void train(AB1_SparseBatch inputs, double[] outputs)
 
    /*
-    * Runs model; makes predictions on input data based on current weights. In comparison to run_train,
-    *    uses a single variable (runtheta) to store single theta value.
-    * 
-    * @param input: data for model to make predictions on
+    * Trains the network using mini-batch gradient descent on cases streamed from a data file, stopping
+    *    under the same conditions as train(inputs, outputs). Each mini-batch is copied out of the current
+    *    chunk into streamInputs/streamOutputs, so mini-batches never span two chunks and at most two chunks
+    *    are held in memory. The error of each case is added straight into the epoch's average.
     *
-    * @return predictions
+    * @param data: source of the training cases
+    *
+    * @throws IllegalArgumentException if the file's cases don't have nInEachInput inputs
     */
-   public double run(double[] input)
+   public void train(AB1_DataFile data) throws IOException
    {
-      // set input activations to input data
-      a = input;
+      AB1_DataFile.Chunk chunk;
+      double predicted, omega, errorSum;
+      int batchCases, record = nInEachInput + 1;
+      long batchStartTime, forwardEnd;
 
-       // for each node in the hidden layer
-      for (int ind = 0; ind < numActs[1]; ind++)
+      if (data.nInEachInput != nInEachInput)
+      {
+         throw new IllegalArgumentException("the data file has " + data.nInEachInput +
+               " inputs per case, but the network takes " + nInEachInput);
+      }
+
+      iteration = startIteration;
+
+      while (keepTraining())
       {
-         // calculate theta (accumulation function)
-         runtheta = 0.0;
+         errorSum = 0.0;
+         data.startEpoch();
 
-         // iterate through each node in the input layer
-         for (int prevInd = 0; prevInd < numActs[0]; prevInd++)
+         if (telemetry != null)
          {
-            runtheta += a[prevInd] * weights1[prevInd][ind];
+            telemetry.startEpoch();
          }
 
-         // update hidden activations
-         h[ind] = sigmoid(runtheta);
+         while ((chunk = data.next()) != null) // for each chunk in the file
+         {
+            for (int batchStart = 0; batchStart < chunk.cases; batchStart += batchSize)
+            {
+               batchCases = Math.min(batchSize, chunk.cases - batchStart);
+               batchStartTime = tick();
 
-      } // ; for (int ind = 0; ind < activationsNum[n]; ind++)
+               for (int b = 0; b < batchCases; b++) // for each case in the batch
+               {
+                  System.arraycopy(chunk.data, (batchStart + b) * record, streamInputs[b], 0, nInEachInput);
+                  streamOutputs[b] = chunk.data[(batchStart + b) * record + nInEachInput];
 
-      thetaOut = 0.0;
+                  predicted = run_train(streamInputs[b]);
 
-      // for each node in the hidden layer
-       for (int ind = 0; ind < numActs[1]; ind++)
-       {
-         // calculate the out theta
-         thetaOut += h[ind] * weights2[ind][0];
-       }
+                  omega = streamOutputs[b] - predicted;
 
-      return sigmoid(thetaOut);
+                  backpropCase(b, omega, predicted);
 
-   } // public void run(double[] inputs)
+                  caseError = (omega * omega) / 2.0;
+                  errorSum += caseError;
+               } // for (int b = 0; b < batchCases; b++)
+
+               forwardEnd = tick();
+               updateWeights(streamInputs, 0, batchCases);
+
+               if (telemetry != null)
+               {
+                  telemetry.addPhases(forwardEnd - batchStartTime, tick() - forwardEnd);
+               }
+
+            } // for (int batchStart = 0; batchStart < chunk.cases; batchStart += batchSize)
+
+            data.release(chunk);
+         } // while ((chunk = data.next()) != null)
+
+         iteration++;
+         avgErr = errorSum / data.nCases;
+
+         if (telemetry != null)
+         {
+            telemetry.endEpoch(iteration, avgErr, data.nCases);
+         }
+
+         checkpoint();
+         validate();
+
+      } // while (keepTraining())
+
+      reportStop();
+
+   } // public void train(AB1_DataFile data)
 
    /*
-    * Runs model for training; makes predictions on input data based on current weights.
-    * 
-    * @param input: data for model to make predictions on
+    * Reads the clock for telemetry. Skips the System.nanoTime call when telemetry is off.
     *
-    * @return predictions
+    * @return System.nanoTime(), or 0 if telemetry is null
     */
-    public double run_train(double[] input)
-    {
-       // set input activations to input data
-       a = input;
- 
-        // for each node in the hidden layer
-       for (int ind = 0; ind < numActs[1]; ind++)
-       {
-          // calculate theta (accumulation function)
-          theta[ind] = 0.0;
- 
-          // iterate through each node in the input layer
-          for (int prevInd = 0; prevInd < numActs[0]; prevInd++)
-          {
-             theta[ind] += a[prevInd] * weights1[prevInd][ind];
-          }
- 
-          // update hidden activations
-          h[ind] = sigmoid(theta[ind]);
- 
-       } // ; for (int ind = 0; ind < activationsNum[n]; ind++)
- 
-       thetaOut = 0.0;
- 
-       // for each node in the hidden layer
-        for (int ind = 0; ind < numActs[1]; ind++)
-        {
-          // calculate the out theta
-          thetaOut += h[ind] * weights2[ind][0];
-        }
- 
-       return sigmoid(thetaOut);
- 
-    } // public void run(double[] inputs)
+   long tick()
+   {
+      return (telemetry != null) ? System.nanoTime() : 0L;
+   }
 
    /*
-    * Report the results from running the model
+    * Moves the last fraction of the training cases into validationInputs and validationOutputs, so that
+    *    they are held out of training and only used to decide when to stop early. The cases aren't
+    *    shuffled first, so the same cases are held out every run, including one resumed from a
+    *    checkpoint; order the cases so the last ones are representative. At least one case is always
+    *    held out and one kept for training.
     *
-    * @param inputs: input data to make predictions on
-    * @param expected_outputs: the expected outputs for the model's predictions
-    * @param outputs: the model's predictions
+    * @param fraction: fraction of the cases to hold out, between 0 and 1
     */
-   public void reportRunningResults(double[][] inputs, double[] expected_outputs, double[] outputs)
+   public void holdOut(double fraction)
    {
-      // iterate through each case
-      for (int case_i = 0; case_i < nCases; case_i++)
+      int held = Math.max(1, Math.min((int) Math.round(fraction * nCases), nCases - 1));
+      int kept = nCases - held;
+
+      validationInputs = Arrays.copyOfRange(inputs, kept, nCases);
+      validationOutputs = Arrays.copyOfRange(outputs, kept, nCases);
+      inputs = Arrays.copyOf(inputs, kept);
+      outputs = Arrays.copyOf(outputs, kept);
+      nCases = kept;
+   } // public void holdOut(double fraction)
+
+   /*
+    * Called after every iteration. Every checkpointEvery iterations, hands a snapshot of the weights and
+    *    optimizer state to the checkpoint writer, which writes it in the background.
+    */
+   void checkpoint()
+   {
+      if (checkpoints != null && iteration % checkpointEvery == 0)
       {
-         System.out.print("Input: ");
+         checkpoints.offer(this);
+      }
+   }
 
-         // iterate through each item in a case and print in a line
-         for (int in = 0; in < inputs[case_i].length; in++)
+   /*
+    * Called after every iteration. Every validateEvery iterations, hands a snapshot of the weights to the
+    *    validator, which scores it on the validation cases in the background.
+    */
+   void validate()
+   {
+      if (validator != null && iteration % validateEvery == 0)
+      {
+         validator.offer(this);
+      }
+   }
+
+   /*
+    * Loop condition shared by the trainers. Training continues while under the max number of iterations
+    *    allowed, the maxError threshold isn't reached and the validator hasn't asked to stop early. A new
+    *    run always trains its first iteration, since avgErr isn't known before it; a run resumed from a
+    *    checkpoint starts with the checkpoint's avgErr, so it trains no further if the run it resumes had
+    *    already stopped.
+    *
+    * @return true if training should run another iteration
+    */
+   boolean keepTraining()
+   {
+      return (iteration == 0) || ((iteration < maxIter) && (avgErr > maxError) && !earlyStop());
+   }
+
+   /*
+    * Prints why training stopped. Shared by the trainers, along with keepTraining.
+    */
+   void reportStop()
+   {
+      if (iteration >= maxIter)
+      {
+         System.out.println("Reached max iterations allowed for training.");
+      } // if (iteration >= maxIter)
+
+      else if (avgErr <= maxError)
+      {
+         System.out.println(avgErr);
+         System.out.println(maxError);
+         System.out.println("Reached desired error value.");
+      } // else if (avgErr <= maxError)
+
+      else if (earlyStop())
+      {
+         System.out.println("Stopped early: validation error stopped improving.");
+      }
+   } // void reportStop()
+
+   /*
+    * @return true if the validator has asked training to stop early
+    */
+   boolean earlyStop()
+   {
+      return validator != null && validator.stop;
+   }
+
+   /*
+    * Computes the psi values for the case just run through run_train and stores them, along with the
+    *    case's hidden activations, in row b of the batch arrays.
+    *
+    * The activation derivatives are calculated from the activations run_train already computed,
+    *    f'(theta) = f(theta) * (1 - f(theta)), instead of recomputing the sigmoid of each theta.
+    *
+    * @param b: index of the case within the current mini-batch
+    * @param omega: expected output minus predicted output for the case
+    * @param predicted: output activation of the case, as returned by run_train
+    */
+   public void backpropCase(int b, double omega, double predicted)
+   {
+      int row = b * numActs[1];
+
+      psiOut = omega * derive_sigmoid_act(predicted);
+      batchPsiOut[b] = psiOut;
+
+      for (int act_j = 0; act_j < numActs[1]; act_j++) // for each activation in hidden layer
+      {
+         // single output node, so its row of weights2 starts at 0
+         omegas[act_j] = psiOut * weights2[act_j];
+
+         psi[act_j] = omegas[act_j] * derive_sigmoid_act(h[act_j]);
+
+         batchH[row + act_j] = h[act_j];
+         batchPsi[row + act_j] = psi[act_j];
+      }
+
+   } // public void backpropCase(int b, double omega, double predicted)
+
+   /*
+    * Sums the derivatives of every case in the mini-batch and updates the weights with them in the same
+    *    pass. With the batch values stored as matrices, deriv2 = -batchPsiOut^T * batchH and the
+    *    derivatives of weights1 are -batchPsi^T * A, where A holds the batch's input activations. The
+    *    weights1 derivatives are summed one contiguous weight row at a time into rowDeriv, and the
+    *    optimizer applies each row to weights1 while it is still in cache, so the derivatives of the
+    *    whole layer are never stored and each weight is read and written once per batch. weights2 is
+    *    updated once at the end; nothing in the pass reads it.
+    *
+    * @param inputs: input data used to train network
+    * @param batchStart: index in inputs of the first case in the batch
+    * @param batchCases: number of cases in the batch
+    */
+   public void updateWeights(double[][] inputs, int batchStart, int batchCases)
+   {
+      int row;
+      double sum, psi_bj;
+      double[] input;
+
+      optimizer.startStep();
+
+      for (int act_j = 0; act_j < numActs[1]; act_j++) // for each activation in hidden layer
+      {
+         // derivative for the weight from hidden node j to the output node
+         sum = 0.0;
+         for (int b = 0; b < batchCases; b++)
+         {
+            sum += batchH[b * numActs[1] + act_j] * batchPsiOut[b];
+         }
+         deriv2[act_j] = -sum;
+
+         // derivatives for the row of weights into hidden node j
+         for (int act_k = 0; act_k < numActs[0]; act_k++)
+         {
+            rowDeriv[act_k] = 0.0;
+         }
+
+         for (int b = 0; b < batchCases; b++)
+         {
+            psi_bj = batchPsi[b * numActs[1] + act_j];
+            input = inputs[batchStart + b];
+
+            for (int act_k = 0; act_k < numActs[0]; act_k++) // for each activation in input layer
+            {
+               rowDeriv[act_k] -= input[act_k] * psi_bj;
+            }
+         } // for (int b = 0; b < batchCases; b++)
+
+         row = act_j * numActs[0];
+         optimizer.apply(AB1_Optimizer.WEIGHTS1, rowDeriv, 0, weights1, row, row + numActs[0]);
+      } // for (int act_j = 0; act_j < numActs[1]; act_j++)
+
+      optimizer.apply(AB1_Optimizer.WEIGHTS2, deriv2, 0, weights2, 0, numActs[1]);
+
+   } // public void updateWeights(double[][] inputs, int batchStart, int batchCases)
+
+   /*
+    * Sums the derivatives of every sparse case in the mini-batch and updates the weights with them, like
+    *    updateWeights, but only for the weights1 columns of inputs that are non-zero in at least one
+    *    case of the batch. Those columns are collected into sparseCols first; each case then only adds
+    *    into the rowDeriv entries of its own non-zero inputs, and only those weights are updated.
+    *
+    * @param inputs: sparse input data used to train network
+    * @param batchStart: index in inputs of the first case in the batch
+    * @param batchCases: number of cases in the batch
+    */
+   public void updateWeightsSparse(AB1_SparseBatch inputs, int batchStart, int batchCases)
+   {
+      int row, col, end;
+      double sum, psi_bj;
+      int[] index = inputs.index;
+      double[] value = inputs.value;
+
+      optimizer.startStep();
+
+      // collect the inputs that are non-zero somewhere in the batch
+      if (++sparseStamp == Integer.MAX_VALUE)
+      {
+         Arrays.fill(sparseMark, 0);
+         sparseStamp = 1;
+      }
+
+      sparseColCount = 0;
+      for (int p = inputs.rowStart[batchStart]; p < inputs.rowStart[batchStart + batchCases]; p++)
+      {
+         if (sparseMark[index[p]] != sparseStamp)
+         {
+            sparseMark[index[p]] = sparseStamp;
+            sparseCols[sparseColCount++] = index[p];
+         }
+      }
+
+      for (int act_j = 0; act_j < numActs[1]; act_j++) // for each activation in hidden layer
+      {
+         // derivative for the weight from hidden node j to the output node
+         sum = 0.0;
+         for (int b = 0; b < batchCases; b++)
+         {
+            sum += batchH[b * numActs[1] + act_j] * batchPsiOut[b];
+         }
+         deriv2[act_j] = -sum;
+
+         // derivatives for the touched entries of the row of weights into hidden node j
+         for (int q = 0; q < sparseColCount; q++)
+         {
+            rowDeriv[sparseCols[q]] = 0.0;
+         }
+
+         for (int b = 0; b < batchCases; b++)
+         {
+            psi_bj = batchPsi[b * numActs[1] + act_j];
+            end = inputs.rowStart[batchStart + b + 1];
+
+            for (int p = inputs.rowStart[batchStart + b]; p < end; p++) // for each non-zero input
+            {
+               rowDeriv[index[p]] -= value[p] * psi_bj;
+            }
+         } // for (int b = 0; b < batchCases; b++)
+
+         row = act_j * numActs[0];
+         for (int q = 0; q < sparseColCount; q++)
+         {
+            col = sparseCols[q];
+            optimizer.apply(AB1_Optimizer.WEIGHTS1, rowDeriv, col, weights1, row + col, row + col + 1);
+         }
+      } // for (int act_j = 0; act_j < numActs[1]; act_j++)
+
+      optimizer.apply(AB1_Optimizer.WEIGHTS2, deriv2, 0, weights2, 0, numActs[1]);
+   } // public void updateWeightsSparse(AB1_SparseBatch inputs, int batchStart, int batchCases)
+
+   /*
+    * Applies the activation function chosen in parametrize: tableSigmoid if useTableSigmoid is set,
+    *    otherwise the exact sigmoid.
+    *
+    * @param input: the value that we apply the activation function to
+    *
+    * @return the activation of input
+    */
+   public double activate(double input)
+   {
+      return useTableSigmoid ? tableSigmoid(input) : sigmoid(input);
+   }
+
+   /*
+    * Calculates sigmoid based on input
+    * 
+    * @param input: the value that we apply the sigmoid function to
+    *
+    * @return the sigmoid of input
+    */
+   public static double sigmoid(double input)
+   {
+      return 1.0 / (1.0 + Math.exp(-input));
+   }
+
+   /*
+    * Calculates the sigmoid derivative based on input
+    *
+    * @param input: the value that we apply the sigmoid derivative function to
+    *
+    * @return the sigmoid derivative of the input
+    */
+   public double derive_sigmoid(double input)
+   {
+      double sigmoid = sigmoid(input);
+      return sigmoid * (1.0 - sigmoid);
+   }
+
+   /*
+    * Calculates the sigmoid derivative from the sigmoid's output, f'(x) = f(x) * (1 - f(x)), so the
+    *    backward pass can reuse the activations from the forward pass instead of calling Math.exp again.
+    *
+    * @param act: the sigmoid of the value we want the derivative at
+    *
+    * @return the sigmoid derivative
+    */
+   public static double derive_sigmoid_act(double act)
+   {
+      return act * (1.0 - act);
+   }
+
+   /*
+    * Calculates sigmoid based on input using SIGMOID_TABLE, interpolating linearly between the two
+    *    nearest entries. The interpolation error is at most h^2 / 8 * max|f''| = 1.8E-7 for a step of
+    *    h = 1 / 256, and clamping outside [-16, 16] is off by at most 1.2E-7, so the result is always
+    *    within 2E-7 of sigmoid(input).
+    *
+    * @param input: the value that we apply the sigmoid function to
+    *
+    * @return the approximate sigmoid of input
+    */
+   public static double tableSigmoid(double input)
+   {
+      if (input <= -SIGMOID_RANGE)
+      {
+         return SIGMOID_TABLE[0];
+      }
+      if (input >= SIGMOID_RANGE)
+      {
+         return SIGMOID_TABLE[SIGMOID_TABLE.length - 1];
+      }
+
+      double pos = (input + SIGMOID_RANGE) * SIGMOID_STEPS;
+      int ind = (int) pos;
+      double frac = pos - ind;
+
+      return SIGMOID_TABLE[ind] + frac * (SIGMOID_TABLE[ind + 1] - SIGMOID_TABLE[ind]);
+   } // public static double tableSigmoid(double input)
+
+   /*
+    * Fills the lookup table used by tableSigmoid. The last entry is at SIGMOID_RANGE exactly, so
+    *    tableSigmoid can always read the entry after the one it lands on.
+    *
+    * @return the sigmoid of every 1 / SIGMOID_STEPS from -SIGMOID_RANGE to SIGMOID_RANGE
+    */
+   private static double[] buildSigmoidTable()
+   {
+      double[] table = new double[(int) (2 * SIGMOID_RANGE * SIGMOID_STEPS) + 1];
+
+      for (int ind = 0; ind < table.length; ind++)
+      {
+         table[ind] = sigmoid(ind / (double) SIGMOID_STEPS - SIGMOID_RANGE);
+      }
+
+      return table;
+   } // private static double[] buildSigmoidTable()
+
+   /*
+    * Display model performance to user.
+    * 
+    * @param inputs: training data
+    * @param expected_outputs: expected outputs
+    * @param outputs: model's calculated predictions
+    */
+   public void reportTrainingResults(double[][] inputs, double[] expected_outputs, double[] outputs)
+   {
+      System.out.println("Total number of iterations: " + iteration);
+      System.out.println("Average error: " + avgErr);
+
+      // iterate through each case in input data and print out prediction
+      for (int t_case = 0; t_case < expected_outputs.length; t_case++)
+      {
+         System.out.print("Input: ");
+         for (int in = 0; in < inputs[t_case].length; in++)
+         {
+            System.out.print(inputs[t_case][in] + " ");
+         }
+
+         System.out.println();
+         System.out.println("Expected Output: " + expected_outputs[t_case]);
+         System.out.println("Predicted Output: " + outputs[t_case]); 
+
+      } // for (int trainCases = 0; trainCases < inputs.length; trainCases++)
+
+   } // public void reportTrainingResults(double[][] inputs, double[] expected_outputs, double[] outputs)
+
+   /*
+    * Runs model; makes predictions on input data based on current weights. In comparison to run_train,
+    *    uses a single variable (runtheta) to store single theta value.
+    * 
+    * @param input: data for model to make predictions on
+    *
+    * @return predictions
+    */
+   public double run(double[] input)
+   {
+      // set input activations to input data
+      a = input;
+
+       // for each node in the hidden layer
+      for (int ind = 0; ind < numActs[1]; ind++)
+      {
+         // calculate theta (accumulation function) over the node's row of weights1
+         runtheta = dot(a, weights1, ind * numActs[0], numActs[0]);
+
+         // update hidden activations
+         h[ind] = activate(runtheta);
+
+      } // ; for (int ind = 0; ind < activationsNum[n]; ind++)
+
+      // calculate the out theta over the output node's row of weights2
+      thetaOut = dot(h, weights2, 0, numActs[1]);
+
+      return activate(thetaOut);
+
+   } // public void run(double[] inputs)
+
+   /*
+    * Runs model on one sparse input, only reading the weights1 entries of its non-zero inputs. The input
+    *    is the slice [start, end) of index and value, so a case of an AB1_SparseBatch can be run in place.
+    *    Stores the hidden activations in h, so it can be used in training as well as running.
+    *
+    * @param index: positions of the non-zero inputs in the dense input
+    * @param value: values of the non-zero inputs
+    * @param start: position in index and value of the first non-zero input
+    * @param end: one past the position of the last non-zero input
+    *
+    * @return prediction
+    */
+   public double runSparse(int[] index, double[] value, int start, int end)
+   {
+      int row;
+      double sum;
+
+      // for each node in the hidden layer
+      for (int ind = 0; ind < numActs[1]; ind++)
+      {
+         // theta over the node's row of weights1, gathering only the non-zero inputs' weights
+         row = ind * numActs[0];
+         sum = 0.0;
+         for (int p = start; p < end; p++)
+         {
+            sum += value[p] * weights1[row + index[p]];
+         }
+
+         h[ind] = activate(sum);
+      } // for (int ind = 0; ind < numActs[1]; ind++)
+
+      thetaOut = dot(h, weights2, 0, numActs[1]);
+
+      return activate(thetaOut);
+   } // public double runSparse(int[] index, double[] value, int start, int end)
+
+   /*
+    * Runs model on every case of a sparse batch.
+    *
+    * @param inputs: sparse input data to make predictions on
+    * @param out: receives the prediction for each case; must be at least inputs.nCases() long
+    */
+   public void runSparse(AB1_SparseBatch inputs, double[] out)
+   {
+      for (int c = 0; c < inputs.nCases(); c++)
+      {
+         out[c] = runSparse(inputs.index, inputs.value, inputs.rowStart[c], inputs.rowStart[c + 1]);
+      }
+   }
+
+   /*
+    * Runs model for training; makes predictions on input data based on current weights.
+    * 
+    * @param input: data for model to make predictions on
+    *
+    * @return predictions
+    */
+    public double run_train(double[] input)
+    {
+       // set input activations to input data
+       a = input;
+ 
+        // for each node in the hidden layer
+       for (int ind = 0; ind < numActs[1]; ind++)
+       {
+          // calculate theta (accumulation function) over the node's row of weights1
+          theta[ind] = dot(a, weights1, ind * numActs[0], numActs[0]);
+ 
+          // update hidden activations
+          h[ind] = activate(theta[ind]);
+ 
+       } // ; for (int ind = 0; ind < activationsNum[n]; ind++)
+ 
+       // calculate the out theta over the output node's row of weights2
+       thetaOut = dot(h, weights2, 0, numActs[1]);
+ 
+       return activate(thetaOut);
+ 
+    } // public void run(double[] inputs)
+
+   /*
+    * Report the results from running the model
+    *
+    * @param inputs: input data to make predictions on
+    * @param expected_outputs: the expected outputs for the model's predictions
+    * @param outputs: the model's predictions
+    */
+   public void reportRunningResults(double[][] inputs, double[] expected_outputs, double[] outputs)
+   {
+      // iterate through each case
+      for (int case_i = 0; case_i < nCases; case_i++)
+      {
+         System.out.print("Input: ");
+
+         // iterate through each item in a case and print in a line
+         for (int in = 0; in < inputs[case_i].length; in++)
          {
             System.out.print(inputs[case_i][in] + " ");
          }
@@ -635,8 +1463,8 @@ public class AB1_Net
    }    // public void reportRunningResults(double[][] inputs, double[] expected_outputs, double[] outputs)
 
    /*
-    * Given an input, run model and return predictions. Uses different running function than in training mode
-    *    in order to save space; theta does not require more storage than a single value while running.
+    * Given an input, run model and return predictions. Uses different running function than in training mode;
+    *    runBatch runs all of the cases together as one blocked matrix multiply.
     *
     * @param input: input data to make predictions
     * 
@@ -646,14 +1474,100 @@ public class AB1_Net
    {
       double output[] = new double[input.length];
 
-      for (int input_ind = 0; input_ind < input.length; input_ind++)
-      {   
-         output[input_ind] = run(input[input_ind]);
-      }
+      runBatch(input, output);
 
       return output;
    } // public double[] runTestCases(double[][] input)
 
+   /*
+    * Runs the model on a whole batch of inputs at once. The hidden thetas of the batch form the matrix
+    *    product of the inputs (cases x numActs[0]) with the transpose of weights1, which is computed in
+    *    tiles of TILE_CASES x TILE_HIDDEN x TILE_INPUTS so that each tile of inputs and weights is reused
+    *    from cache across the whole tile instead of being reloaded for every case. Within a tile, each
+    *    case's range of inputs is multiplied with each weights1 row's range by dotRange, with the Vector
+    *    API kernel if useVector is set, like run. The sigmoid is then applied over the whole batch and
+    *    each case's output is accumulated from its row.
+    *
+    * @param inputs: input data to make predictions on, one case per row
+    * @param out: receives the prediction for each case; must be at least inputs.length long
+    */
+   public void runBatch(double[][] inputs, double[] out)
+   {
+      runBatch(inputs, inputs.length, out);
+   }
+
+   /*
+    * Runs the model on the first nBatch rows of inputs at once, as runBatch above. Lets callers that
+    *    collect batches of varying size (such as AB1_Server) reuse one array of rows.
+    *
+    * @param inputs: input data to make predictions on, one case per row
+    * @param nBatch: number of rows of inputs to run
+    * @param out: receives the prediction for each case; must be at least nBatch long
+    */
+   public void runBatch(double[][] inputs, int nBatch, double[] out)
+   {
+      int nIn = numActs[0], nHidden = numActs[1];
+      int caseEnd, hiddenEnd, inputEnd, row;
+      double sum;
+      double[] input;
+
+      if (runBatchTheta == null || runBatchTheta.length < nBatch * nHidden)
+      {
+         runBatchTheta = new double[nBatch * nHidden];
+      }
+
+      Arrays.fill(runBatchTheta, 0, nBatch * nHidden, 0.0);
+
+      // theta = inputs * weights1^T, one tile at a time
+      for (int caseStart = 0; caseStart < nBatch; caseStart += TILE_CASES)
+      {
+         caseEnd = Math.min(caseStart + TILE_CASES, nBatch);
+
+         for (int hiddenStart = 0; hiddenStart < nHidden; hiddenStart += TILE_HIDDEN)
+         {
+            hiddenEnd = Math.min(hiddenStart + TILE_HIDDEN, nHidden);
+
+            for (int inputStart = 0; inputStart < nIn; inputStart += TILE_INPUTS)
+            {
+               inputEnd = Math.min(inputStart + TILE_INPUTS, nIn);
+
+               for (int b = caseStart; b < caseEnd; b++)
+               {
+                  input = inputs[b];
+
+                  for (int j = hiddenStart; j < hiddenEnd; j++)
+                  {
+                     runBatchTheta[b * nHidden + j] += dotRange(input, inputStart, weights1,
+                           j * nIn + inputStart, inputEnd - inputStart, useVector);
+                  }
+               } // for (int b = caseStart; b < caseEnd; b++)
+
+            } // for (int inputStart = 0; inputStart < nIn; inputStart += TILE_INPUTS)
+         } // for (int hiddenStart = 0; hiddenStart < nHidden; hiddenStart += TILE_HIDDEN)
+      } // for (int caseStart = 0; caseStart < nBatch; caseStart += TILE_CASES)
+
+      // hidden activations for the whole batch
+      for (int i = 0; i < nBatch * nHidden; i++)
+      {
+         runBatchTheta[i] = activate(runBatchTheta[i]);
+      }
+
+      // output activation for each case, from the case's row of hidden activations
+      for (int b = 0; b < nBatch; b++)
+      {
+         row = b * nHidden;
+         sum = 0.0;
+
+         for (int j = 0; j < nHidden; j++)
+         {
+            sum += runBatchTheta[row + j] * weights2[j];
+         }
+
+         out[b] = activate(sum);
+      } // for (int b = 0; b < nBatch; b++)
+
+   } // public void runBatch(double[][] inputs, int nBatch, double[] out)
+
    /*
     * Given an input, run model and return predictions.
     *
@@ -673,4 +1587,358 @@ public class AB1_Net
       return output;
    } // public double[] runTestCases(double[][] input)
 
+   /*
+    * Calculates the dot product of act with the n weights of w starting at offset, using the Vector API
+    *    kernel if useVector is set.
+    *
+    * @param act: activations of the previous layer
+    * @param w: flat weight array
+    * @param offset: index in w of the first weight in the row
+    * @param n: number of activations/weights in the row
+    *
+    * @return the accumulated theta value
+    */
+   public double dot(double[] act, double[] w, int offset, int n)
+   {
+      return dot(act, w, offset, n, useVector);
+   }
+
+   /*
+    * Calculates the dot product of act with the n weights of w starting at offset. Uses the Vector API
+    *    kernel if vector is true and the kernel was found, otherwise a scalar loop. Static so that other
+    *    classes sharing the weights (such as AB1_Model) use the same kernel.
+    *
+    * @param act: activations of the previous layer
+    * @param w: flat weight array
+    * @param offset: index in w of the first weight in the row
+    * @param n: number of activations/weights in the row
+    * @param vector: whether to use the Vector API kernel
+    *
+    * @return the accumulated theta value
+    */
+   public static double dot(double[] act, double[] w, int offset, int n, boolean vector)
+   {
+      if (vector && VECTOR_DOT != null)
+      {
+         try
+         {
+            return (double) VECTOR_DOT.invokeExact(act, w, offset, n);
+         }
+         catch (Throwable t)
+         {
+            throw new RuntimeException(t);
+         }
+      } // if (useVector && VECTOR_DOT != null)
+
+      double sum = 0.0;
+
+      for (int k = 0; k < n; k++)
+      {
+         sum += act[k] * w[offset + k];
+      }
+
+      return sum;
+   } // public static double dot(double[] act, double[] w, int offset, int n, boolean vector)
+
+   /*
+    * Calculates the dot product of the n activations of act starting at actOffset with the n weights of
+    *    w starting at offset, with the Vector API kernel if vector is true and the kernel was found,
+    *    otherwise with a scalar loop.
+    *
+    * @param act: activations of the previous layer
+    * @param actOffset: index in act of the first activation
+    * @param w: flat weight array
+    * @param offset: index in w of the first weight
+    * @param n: number of activations/weights in the range
+    * @param vector: whether to use the Vector API kernel
+    *
+    * @return the accumulated theta value of the range
+    */
+   static double dotRange(double[] act, int actOffset, double[] w, int offset, int n, boolean vector)
+   {
+      if (vector && VECTOR_DOT_RANGE != null)
+      {
+         try
+         {
+            return (double) VECTOR_DOT_RANGE.invokeExact(act, actOffset, w, offset, n);
+         }
+         catch (Throwable t)
+         {
+            throw new RuntimeException(t);
+         }
+      } // if (vector && VECTOR_DOT_RANGE != null)
+
+      double sum = 0.0;
+
+      for (int k = 0; k < n; k++)
+      {
+         sum += act[actOffset + k] * w[offset + k];
+      }
+
+      return sum;
+   } // static double dotRange(double[] act, int actOffset, double[] w, int offset, int n, boolean vector)
+
+   /*
+    * Saves the configuration and weights to a file in the AB1_ModelFile format.
+    *
+    * @param path: file to write
+    */
+   public void saveWeights(String path) throws IOException
+   {
+      AB1_ModelFile.save(path, numActs, weights1, weights2);
+   }
+
+   /*
+    * Loads weights saved by saveWeights. The network must already be allocated with the same
+    *    configuration as the file.
+    *
+    * @param path: file to read
+    */
+   public void loadWeights(String path) throws IOException
+   {
+      AB1_ModelFile.loadInto(path, this);
+   }
+
+   /*
+    * Restores the weights, optimizer state, iteration count and error saved in a checkpoint, so the next
+    *    call to train continues from there. The network must already be allocated for training with the
+    *    same configuration and optimizer as the checkpoint. Early stopping isn't saved, so it starts over.
+    *
+    * @param path: checkpoint file to read
+    */
+   public void resume(String path) throws IOException
+   {
+      AB1_Checkpoint.resume(path, this);
+   }
+
+   /*
+    * Takes an immutable snapshot of the current weights for concurrent inference, activating with the
+    *    network's sigmoid.
+    *
+    * @return a model holding copies of numActs, weights1 and weights2
+    */
+   public AB1_Model toModel()
+   {
+      return new AB1_Model(numActs, weights1, weights2, useVector, useTableSigmoid);
+   }
+
+   /*
+    * Exports the current weights into a float32 model, which halves the footprint of the weights.
+    *
+    * @return a model holding the weights rounded to floats
+    */
+   public AB1_FloatModel toFloatModel()
+   {
+      return new AB1_FloatModel(numActs, weights1, weights2, useVector);
+   }
+
+   /*
+    * Exports the current weights into an int8 model with one scale per layer, which cuts the footprint of
+    *    the weights to an eighth.
+    *
+    * @return a model holding the quantized weights
+    */
+   public AB1_Int8Model toInt8Model()
+   {
+      return new AB1_Int8Model(numActs, weights1, weights2, useVector);
+   }
+
+   /*
+    * Compiles the current weights into a hidden class whose forward pass is fully unrolled, with every
+    *    weight inlined as a constant and the same activation as the network. Only small networks can be
+    *    compiled.
+    *
+    * @return the compiled model
+    *
+    * @throws IllegalArgumentException if the network has more than AB1_CompiledModel.MAX_WEIGHTS weights
+    */
+   public AB1_CompiledModel toCompiledModel()
+   {
+      return AB1_CompiledModel.compile(numActs, weights1, weights2, useTableSigmoid);
+   }
+
+   /*
+    * Prunes the given fraction of the weights between the input and hidden activations, smallest
+    *    magnitude first, and exports the rest into a sparse model with the network's activation.
+    *
+    * @param sparsity: fraction of weights1 to prune, from 0.0 to 1.0
+    *
+    * @return a model holding only the weights that were not pruned
+    */
+   public AB1_SparseModel toSparseModel(double sparsity)
+   {
+      return toSparseModelAt(AB1_SparseModel.thresholdForSparsity(weights1, sparsity));
+   }
+
+   /*
+    * Prunes every weight between the input and hidden activations whose magnitude is at or below
+    *    threshold, and exports the rest into a sparse model with the network's activation.
+    *
+    * @param threshold: largest magnitude to prune
+    *
+    * @return a model holding only the weights that were not pruned
+    */
+   public AB1_SparseModel toSparseModelAt(double threshold)
+   {
+      return new AB1_SparseModel(numActs, weights1, weights2, threshold, useTableSigmoid);
+   }
+
+   /*
+    * Runs the network's double model and its float32, int8 and compiled exports on every case, and prints
+    *    the size of each model's weights and the largest and mean absolute differences of the exports'
+    *    predictions from the double model's. The compiled model is left out if the network is too large
+    *    to compile.
+    *
+    * @param inputs: cases to compare the models on
+    */
+   public void reportExportAccuracy(double[][] inputs)
+   {
+      AB1_FloatModel floatModel = toFloatModel();
+      AB1_Int8Model int8Model = toInt8Model();
+      AB1_Model.Context exact = toModel().newContext();
+      AB1_FloatModel.Context single = floatModel.newContext();
+      AB1_Int8Model.Context quantized = int8Model.newContext();
+      AB1_CompiledModel compiled = null;
+      double expected, diff, maxFloat = 0.0, maxInt8 = 0.0, sumFloat = 0.0, sumInt8 = 0.0;
+      double maxCompiled = 0.0, sumCompiled = 0.0;
+
+      if (weights1.length + weights2.length <= AB1_CompiledModel.MAX_WEIGHTS)
+      {
+         compiled = toCompiledModel();
+      }
+
+      for (int case_ = 0; case_ < inputs.length; case_++)
+      {
+         expected = exact.run(inputs[case_]);
+
+         diff = Math.abs(single.run(inputs[case_]) - expected);
+         maxFloat = Math.max(maxFloat, diff);
+         sumFloat += diff;
+
+         diff = Math.abs(quantized.run(inputs[case_]) - expected);
+         maxInt8 = Math.max(maxInt8, diff);
+         sumInt8 += diff;
+
+         if (compiled != null)
+         {
+            diff = Math.abs(compiled.run(inputs[case_]) - expected);
+            maxCompiled = Math.max(maxCompiled, diff);
+            sumCompiled += diff;
+         }
+      } // for (int case_ = 0; case_ < inputs.length; case_++)
+
+      System.out.println("Exported models, difference from the double model (" +
+            8L * (weights1.length + weights2.length) + " bytes of weights):");
+      System.out.println("   float32 (" + floatModel.weightBytes() + " bytes): max " + maxFloat + ", mean " +
+            sumFloat / inputs.length);
+      System.out.println("   int8    (" + int8Model.weightBytes() + " bytes): max " + maxInt8 + ", mean " +
+            sumInt8 / inputs.length);
+
+      if (compiled != null)
+      {
+         System.out.println("   compiled (weights inlined): max " + maxCompiled + ", mean " +
+               sumCompiled / inputs.length);
+      }
+   } // public void reportExportAccuracy(double[][] inputs)
+
+   /*
+    * Runs a pruned model of the network and the network's double model on every case. Prints the
+    *    fraction of weights pruned, the size of both models' weights, the average error
+    *    of each (computed the same way train computes avgErr) and how far the pruned model's predictions
+    *    are from the double model's.
+    *
+    * @param inputs: cases to compare the models on
+    * @param outputs: expected outputs of the cases
+    * @param pruned: model from toSparseModel or toSparseModelAt
+    */
+   public void reportPruning(double[][] inputs, double[] outputs, AB1_SparseModel pruned)
+   {
+      AB1_Model.Context exact = toModel().newContext();
+      double expected, predicted, omega, diff;
+      double denseErr = 0.0, prunedErr = 0.0, maxDiff = 0.0, sumDiff = 0.0;
+
+      for (int case_ = 0; case_ < inputs.length; case_++)
+      {
+         expected = exact.run(inputs[case_]);
+         predicted = pruned.run(inputs[case_]);
+
+         omega = outputs[case_] - expected;
+         denseErr += (omega * omega) / 2.0;
+         omega = outputs[case_] - predicted;
+         prunedErr += (omega * omega) / 2.0;
+
+         diff = Math.abs(predicted - expected);
+         maxDiff = Math.max(maxDiff, diff);
+         sumDiff += diff;
+      } // for (int case_ = 0; case_ < inputs.length; case_++)
+
+      System.out.println("Pruned model, " + pruned.nonZeros() + " of " + weights1.length +
+            " input weights kept (sparsity " + pruned.sparsity() + ", threshold " + pruned.threshold() +
+            "):");
+      System.out.println("   weights: " + pruned.weightBytes() + " bytes, dense " +
+            8L * (weights1.length + weights2.length) + " bytes");
+      System.out.println("   avgErr: " + prunedErr / inputs.length + ", dense " + denseErr / inputs.length);
+      System.out.println("   difference from the double model: max " + maxDiff + ", mean " +
+            sumDiff / inputs.length);
+   } // public void reportPruning(double[][] inputs, double[] outputs, AB1_SparseModel pruned)
+
+   /*
+    * Looks up a kernel in AB1_VectorKernel, for this class and the models exported from it. Loading the
+    *    kernel fails if it wasn't compiled or the
+    *    jdk.incubator.vector module wasn't added, in which case the scalar loop is used.
+    *
+    * @param name: name of the kernel
+    * @param type: the kernel's signature
+    *
+    * @return a handle to the kernel, or null if it is not available
+    */
+   static MethodHandle findVectorKernel(String name, MethodType type)
+   {
+      try
+      {
+         Class<?> kernel = Class.forName("AB1_VectorKernel");
+         return MethodHandles.lookup().findStatic(kernel, name, type);
+      }
+      catch (ReflectiveOperationException | LinkageError e)
+      {
+         return null;
+      }
+   } // static MethodHandle findVectorKernel(String name, MethodType type)
+
+   /*
+    * Calls AB1_OffHeapNet.name(net). The class is looked up at run time, so AB1_Net never refers to the
+    *    preview API it uses and compiles without --enable-preview.
+    *
+    * @param name: name of the entry point, trainOffHeap or runOffHeap
+    * @param net: network to pass to it
+    */
+   private static void callOffHeap(String name, AB1_Net net) throws IOException
+   {
+      MethodHandle entry;
+
+      try
+      {
+         entry = MethodHandles.lookup().findStatic(Class.forName("AB1_OffHeapNet"), name,
+               MethodType.methodType(void.class, AB1_Net.class));
+      }
+      catch (ReflectiveOperationException | LinkageError e)
+      {
+         throw new UnsupportedOperationException("offHeap needs AB1_OffHeapNet, compiled and run with " +
+               "--enable-preview", e);
+      }
+
+      try
+      {
+         entry.invokeExact(net);
+      }
+      catch (IOException | RuntimeException | Error e)
+      {
+         throw e;
+      }
+      catch (Throwable t)
+      {
+         throw new RuntimeException(t);
+      }
+   } // private static void callOffHeap(String name, AB1_Net net)
+
 } // public class AB1_Net
@@ -0,0 +1,664 @@
+/*
+ * This file implements an off-heap backend for AB1_Net using the Foreign Function and Memory API. The
+ * weights and the activations of each mini-batch are stored in MemorySegments outside the Java heap, so a
+ * model of any size adds only a handful of small objects to the heap and never has to be scanned or
+ * copied by the garbage collector.
+ *
+ * Every segment belongs to an arena the backend owns, and its lifecycle is explicit: the memory is
+ * freed, or the file unmapped, when close is called, and any use of the backend afterwards throws an
+ * IllegalStateException instead of touching freed memory. The arena is confined, so a backend must be
+ * used and closed by the thread that created it.
+ *
+ * The weights either live in fresh off-heap memory (allocate) or are mapped straight from a weights file
+ * in the AB1_ModelFile format (map). A mapped file is shared with every other process that maps it: a
+ * read-only mapping lets many processes serve one model from a single copy in the page cache, and a
+ * writable mapping lets training update the file in place. Values are stored little-endian, as in the
+ * file format, and files larger than 2 GB can be mapped.
+ *
+ * run and train behave exactly like AB1_Net's and read all of their settings (activation, optimizer,
+ * lambda, batchSize, maxIter, maxError, telemetry, validator) from the network the backend was created
+ * for, and stop under the same conditions. The optimizer updates one row of weights at a time through a
+ * row-sized heap buffer. Stateful optimizers (momentum, RMSProp, Adam) still keep their state on the
+ * heap, so plain SGD is the one to use for models that wouldn't fit there. Training can resume from a
+ * checkpoint restored into the network before the backend is allocated, but checkpoints aren't written
+ * while training off-heap.
+ *
+ * Methods:
+ *    trainOffHeap: AB1_Net.main's off-heap training: trains, reports and saves a network off the heap.
+ *    runOffHeap: AB1_Net.main's off-heap running: reports a network run from its mapped weights file.
+ *    allocate: creates a backend with its weights in off-heap memory.
+ *    map: creates a backend with its weights mapped from a weights file.
+ *    AB1_OffHeapNet: allocates the activation segments for a network's configuration.
+ *    run: runs the network on one input.
+ *    runTestCases: runs the network on each input and returns the predictions.
+ *    train: trains the network using mini-batch gradient descent, like AB1_Net.train.
+ *    validate: hands a snapshot of the weights to the network's validator when one is due.
+ *    finishValidation: scores a final snapshot and restores the best weights if training stopped early.
+ *    runCase: runs one case of a mini-batch forward and stores its activations and psi values.
+ *    updateWeights: sums a mini-batch's derivatives and updates the weights one row at a time.
+ *    copyTo: copies the weights into an AB1_Net allocated with the same configuration.
+ *    save: writes the weights to a weights file.
+ *    force: writes the changes to a mapped weights file to storage.
+ *    close: frees the off-heap memory or unmaps the file.
+ *    dot: dot product of a row of activations with a row of weights, both in segments.
+ *    findVectorDot: looks up the Vector API segment kernel in AB1_SegmentKernel, if it is available.
+ *
+ * The Foreign Function and Memory API is a preview API in JDK 21, so this file and AB1_SegmentKernel are
+ * compiled with --release 21 --enable-preview, and the JVM is run with --enable-preview whenever the
+ * backend is used. AB1_Net never names this class; when offHeap is set, main calls trainOffHeap or
+ * runOffHeap through a method handle, so AB1_Net compiles and runs without --enable-preview.
+ */
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public final class AB1_OffHeapNet implements AutoCloseable
+{
+   /*
+    * DOUBLE: layout of every value in the segments, a little-endian double.
+    * VECTOR_DOT: handle to AB1_SegmentKernel.dotSegment, or null if the kernel isn't available.
+    *
+    * net: the network the backend was created for, which holds its settings.
+    * numActs: configuration number of activations in each layer.
+    * arena: owns every segment of the backend.
+    * file: the mapped weights file, or null if the weights were allocated.
+    * weights1: weights between input and hidden activations, laid out as in AB1_Net.
+    * weights2: weights between hidden and output activations, laid out as in AB1_Net.
+    *
+    * a: the input being run.
+    * batchH: hidden activations of each case in the current mini-batch, one row of numActs[1] values per
+    *    case. run uses the first row.
+    * batchPsi: psi values for the hidden activations of each case in the current mini-batch.
+    *
+    * The following arrays are small and stay on the heap, and are allocated when training starts.
+    * optimizer: the network's optimizer, with its state allocated for the backend's weights.
+    * batchPsiOut: psi value for the output activation of each case in the current mini-batch.
+    * rowDeriv: derivatives of the row of weights being updated.
+    * deriv2: derivatives of weights2.
+    * rowWeights: the row of weights being updated, copied out of its segment.
+    * totalError: error of each case in the latest epoch.
+    */
+   static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE.withOrder(ByteOrder.LITTLE_ENDIAN);
+   static final MethodHandle VECTOR_DOT = findVectorDot();
+
+   final AB1_Net net;
+   final int[] numActs;
+   final Arena arena;
+   final MemorySegment file, weights1, weights2;
+   final MemorySegment a, batchH, batchPsi;
+
+   AB1_Optimizer optimizer;
+   double[] batchPsiOut, rowDeriv, deriv2, rowWeights, totalError;
+
+   /*
+    * Trains net off the heap, for AB1_Net.main. net must be allocated for training, with its weights
+    *    populated or restored from a checkpoint. The weights are copied into off-heap memory and net's
+    *    heap arrays are dropped, so the off-heap copy is the only one from then on. After training,
+    *    the validator is finished, the results are reported from the off-heap weights and the weights
+    *    are saved to weightsOut, if set. The export and pruning reports need the weights on the heap, so
+    *    they are skipped.
+    *
+    * @param net: the network, allocated for training
+    */
+   static void trainOffHeap(AB1_Net net) throws IOException
+   {
+      try (AB1_OffHeapNet offHeapNet = allocate(net))
+      {
+         net.weights1 = null;
+         net.weights2 = null;
+
+         offHeapNet.train(net.inputs, net.outputs);
+
+         if (net.validator != null) // restores the best weights if training stopped early
+         {
+            offHeapNet.finishValidation();
+         }
+
+         net.reportTrainingResults(net.inputs, net.outputs, offHeapNet.runTestCases(net.inputs));
+
+         if (net.telemetry != null)
+         {
+            System.out.println(net.telemetry);
+         }
+
+         if (net.weightsOut != null)
+         {
+            offHeapNet.save(net.weightsOut);
+         }
+      } // try (AB1_OffHeapNet offHeapNet = allocate(net))
+   } // static void trainOffHeap(AB1_Net net)
+
+   /*
+    * Runs net straight from its mapped weights file, weightsIn, for AB1_Net.main, and reports the
+    *    results.
+    *
+    * @param net: the network, allocated for running
+    */
+   static void runOffHeap(AB1_Net net) throws IOException
+   {
+      try (AB1_OffHeapNet offHeapNet = map(net.weightsIn, net, false))
+      {
+         net.reportRunningResults(net.inputs, net.outputs, offHeapNet.runTestCases(net.inputs));
+      }
+   }
+
+   /*
+    * Creates a backend for net with its weights in newly allocated off-heap memory. If net has weights,
+    *    they are copied in; otherwise the weights are drawn from (minRand, maxRand) exactly as
+    *    AB1_Net.populateRandom would with the net's seed, without ever being held on the heap.
+    *
+    * @param net: the network, parametrized
+    *
+    * @return the backend
+    */
+   public static AB1_OffHeapNet allocate(AB1_Net net)
+   {
+      int[] numActs = net.numActs;
+      Arena arena = Arena.ofConfined();
+      MemorySegment weights1 = arena.allocate(8L * numActs[1] * numActs[0], 8);
+      MemorySegment weights2 = arena.allocate(8L * numActs[2] * numActs[1], 8);
+
+      if (net.weights1 != null)
+      {
+         MemorySegment.copy(net.weights1, 0, weights1, DOUBLE, 0, net.weights1.length);
+         MemorySegment.copy(net.weights2, 0, weights2, DOUBLE, 0, net.weights2.length);
+      }
+      else // same order of draws as populateRandom
+      {
+         net.random = new SplittableRandom(net.seed);
+
+         for (int currNode = 0; currNode < numActs[0]; currNode++)    // each node in input layer
+         {
+            for (int nextNode = 0; nextNode < numActs[1]; nextNode++) // each node in hidden layer
+            {
+               weights1.setAtIndex(DOUBLE, (long) nextNode * numActs[0] + currNode,
+                     net.generate_random_value());
+            }
+         }
+
+         for (int currNode = 0; currNode < numActs[1]; currNode++)    // each node in hidden layer
+         {
+            for (int nextNode = 0; nextNode < numActs[2]; nextNode++) // each node in output layer
+            {
+               weights2.setAtIndex(DOUBLE, (long) nextNode * numActs[1] + currNode,
+                     net.generate_random_value());
+            }
+         }
+      } // else
+
+      return new AB1_OffHeapNet(net, arena, null, weights1, weights2);
+   } // public static AB1_OffHeapNet allocate(AB1_Net net)
+
+   /*
+    * Creates a backend for net whose weights are mapped straight from a weights file written by
+    *    AB1_Net.saveWeights. With a writable mapping, training updates the file in place; with a
+    *    read-only mapping, training throws an exception.
+    *
+    * @param path: weights file to map, with the same configuration as net
+    * @param net: the network, parametrized
+    * @param writable: whether to map the file for writing
+    *
+    * @return the backend
+    */
+   public static AB1_OffHeapNet map(String path, AB1_Net net, boolean writable) throws IOException
+   {
+      Arena arena = Arena.ofConfined();
+      MemorySegment file;
+      ByteBuffer header;
+      int[] numActs;
+      long start, size1;
+
+      try
+      {
+         try (FileChannel channel = writable ?
+               FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE) :
+               FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+         {
+            file = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0,
+                  channel.size(), arena);
+         }
+
+         start = AB1_ModelFile.headerSize(3);
+         header = file.asSlice(0, Math.min(file.byteSize(), start)).asByteBuffer();
+         numActs = AB1_ModelFile.checkHeader(path, header.order(ByteOrder.LITTLE_ENDIAN), file.byteSize());
+
+         if (!Arrays.equals(numActs, net.numActs))
+         {
+            throw new IOException(path + " holds a " + Arrays.toString(numActs) + " network, expected " +
+                  Arrays.toString(net.numActs));
+         }
+      }
+      catch (IOException | RuntimeException e)
+      {
+         arena.close();
+         throw e;
+      }
+
+      size1 = 8L * numActs[1] * numActs[0];
+
+      return new AB1_OffHeapNet(net, arena, file, file.asSlice(start, size1),
+            file.asSlice(start + size1, 8L * numActs[2] * numActs[1]));
+   } // public static AB1_OffHeapNet map(String path, AB1_Net net, boolean writable)
+
+   /*
+    * Allocates the activation segments of a backend in its arena.
+    *
+    * @param net: the network, parametrized
+    * @param arena: arena owning weights1 and weights2
+    * @param file: the mapped weights file, or null
+    * @param weights1: weights between input and hidden activations
+    * @param weights2: weights between hidden and output activations
+    */
+   private AB1_OffHeapNet(AB1_Net net, Arena arena, MemorySegment file, MemorySegment weights1,
+         MemorySegment weights2)
+   {
+      this.net = net;
+      this.numActs = net.numActs.clone();
+      this.arena = arena;
+      this.file = file;
+      this.weights1 = weights1;
+      this.weights2 = weights2;
+
+      int rows = Math.max(net.batchSize, 1);
+
+      a = arena.allocate(8L * numActs[0], 8);
+      batchH = arena.allocate(8L * rows * numActs[1], 8);
+      batchPsi = arena.allocate(8L * rows * numActs[1], 8);
+   } // private AB1_OffHeapNet(AB1_Net net, Arena arena, MemorySegment file, ...)
+
+   /*
+    * Runs the network on input.
+    *
+    * @param input: data for model to make predictions on
+    *
+    * @return prediction
+    */
+   public double run(double[] input)
+   {
+      MemorySegment.copy(input, 0, a, DOUBLE, 0, numActs[0]);
+
+      // for each node in the hidden layer
+      for (int j = 0; j < numActs[1]; j++)
+      {
+         batchH.setAtIndex(DOUBLE, j, net.activate(dot(a, 0, weights1, 8L * j * numActs[0], numActs[0])));
+      }
+
+      return net.activate(dot(batchH, 0, weights2, 0, numActs[1]));
+   } // public double run(double[] input)
+
+   /*
+    * Runs the network on each input.
+    *
+    * @param inputs: data for model to make predictions on
+    *
+    * @return the prediction for each input
+    */
+   public double[] runTestCases(double[][] inputs)
+   {
+      double[] output = new double[inputs.length];
+
+      for (int case_ = 0; case_ < inputs.length; case_++)
+      {
+         output[case_] = run(inputs[case_]);
+      }
+
+      return output;
+   } // public double[] runTestCases(double[][] inputs)
+
+   /*
+    * Trains the network using mini-batch gradient descent, stopping under the same conditions as
+    *    AB1_Net.train and producing the same weights. iteration and avgErr are stored in the net so its
+    *    reporting functions still work. The optimizer's state is only allocated if it hasn't been yet, so
+    *    state restored from a checkpoint carries over.
+    *
+    * @param inputs: input data used to train network
+    * @param outputs: expected outputs for network
+    */
+   public void train(double[][] inputs, double[] outputs)
+   {
+      int batchCases;
+      long batchStartTime, forwardEnd;
+
+      if (optimizer == null)
+      {
+         optimizer = (net.optimizer != null) ? net.optimizer : new AB1_Optimizer.Sgd(net.lambda);
+         if (!optimizer.isAllocated())
+         {
+            optimizer.allocate((int) (weights1.byteSize() / 8), (int) (weights2.byteSize() / 8));
+         }
+
+         batchPsiOut = new double[Math.max(net.batchSize, 1)];
+         rowDeriv = new double[numActs[0]];
+         deriv2 = new double[numActs[1]];
+         rowWeights = new double[Math.max(numActs[0], numActs[1])];
+      } // if (optimizer == null)
+
+      if (totalError == null || totalError.length != inputs.length)
+      {
+         totalError = new double[inputs.length];
+      }
+
+      net.iteration = net.startIteration;
+
+      while (net.keepTraining())
+      {
+         if (net.telemetry != null)
+         {
+            net.telemetry.startEpoch();
+         }
+
+         // iterate through each mini-batch in the training data
+         for (int batchStart = 0; batchStart < inputs.length; batchStart += net.batchSize)
+         {
+            batchCases = Math.min(net.batchSize, inputs.length - batchStart);
+            batchStartTime = net.tick();
+
+            for (int b = 0; b < batchCases; b++) // for each case in the batch
+            {
+               totalError[batchStart + b] = runCase(b, inputs[batchStart + b], outputs[batchStart + b]);
+            }
+
+            forwardEnd = net.tick();
+            updateWeights(inputs, batchStart, batchCases);
+
+            if (net.telemetry != null)
+            {
+               net.telemetry.addPhases(forwardEnd - batchStartTime, net.tick() - forwardEnd);
+            }
+         } // for (int batchStart = 0; batchStart < inputs.length; batchStart += net.batchSize)
+
+         net.iteration++;
+
+         // calculate average error
+         net.avgErr = 0.0;
+         for (int train_case = 0; train_case < inputs.length; train_case++)
+         {
+            net.avgErr += totalError[train_case];
+         }
+
+         net.avgErr /= inputs.length;
+
+         if (net.telemetry != null)
+         {
+            net.telemetry.endEpoch(net.iteration, net.avgErr, inputs.length);
+         }
+
+         validate();
+
+      } // while (net.keepTraining())
+
+      net.reportStop();
+
+   } // public void train(double[][] inputs, double[] outputs)
+
+   /*
+    * Called after every iteration, like AB1_Net.validate. Every validateEvery iterations, copies the
+    *    weights into the validator's snapshot buffers and hands them to it to score in the background.
+    */
+   void validate()
+   {
+      AB1_Validator validator = net.validator;
+
+      if (validator != null && net.iteration % net.validateEvery == 0 && validator.claim())
+      {
+         MemorySegment.copy(weights1, DOUBLE, 0, validator.weights1, 0, validator.weights1.length);
+         MemorySegment.copy(weights2, DOUBLE, 0, validator.weights2, 0, validator.weights2.length);
+         validator.submit(net.iteration);
+      }
+   } // void validate()
+
+   /*
+    * Does what AB1_Validator.finish does for weights on the heap: waits for any scoring in progress,
+    *    scores a final snapshot and stops the validator thread, and if training stopped early, replaces
+    *    the weights with the best ones scored.
+    */
+   void finishValidation()
+   {
+      AB1_Validator validator = net.validator;
+
+      if (!validator.awaitScoring())
+      {
+         return;
+      }
+
+      if (!validator.stop && validator.claim())
+      {
+         MemorySegment.copy(weights1, DOUBLE, 0, validator.weights1, 0, validator.weights1.length);
+         MemorySegment.copy(weights2, DOUBLE, 0, validator.weights2, 0, validator.weights2.length);
+         validator.submit(net.iteration);
+
+         if (!validator.awaitScoring())
+         {
+            return;
+         }
+      } // if (!validator.stop && validator.claim())
+      validator.scorer.shutdown();
+
+      if (validator.stop)
+      {
+         MemorySegment.copy(validator.best1, 0, weights1, DOUBLE, 0, validator.best1.length);
+         MemorySegment.copy(validator.best2, 0, weights2, DOUBLE, 0, validator.best2.length);
+         validator.restored();
+      }
+   } // void finishValidation()
+
+   /*
+    * Runs one case forward and stores its hidden activations and psi values in row b of the batch
+    *    segments, with the activation derivatives taken from the activations, as in AB1_Net.backpropCase.
+    *
+    * @param b: index of the case within the current mini-batch
+    * @param input: the case's input
+    * @param expected: the case's expected output
+    *
+    * @return the case's error
+    */
+   double runCase(int b, double[] input, double expected)
+   {
+      long row = (long) b * numActs[1];
+      double predicted, omega, psiOut, hj;
+
+      MemorySegment.copy(input, 0, a, DOUBLE, 0, numActs[0]);
+
+      for (int j = 0; j < numActs[1]; j++)
+      {
+         batchH.setAtIndex(DOUBLE, row + j,
+               net.activate(dot(a, 0, weights1, 8L * j * numActs[0], numActs[0])));
+      }
+
+      predicted = net.activate(dot(batchH, 8L * row, weights2, 0, numActs[1]));
+      omega = expected - predicted;
+
+      psiOut = omega * AB1_Net.derive_sigmoid_act(predicted);
+      batchPsiOut[b] = psiOut;
+
+      for (int j = 0; j < numActs[1]; j++)
+      {
+         hj = batchH.getAtIndex(DOUBLE, row + j);
+         batchPsi.setAtIndex(DOUBLE, row + j,
+               psiOut * weights2.getAtIndex(DOUBLE, j) * AB1_Net.derive_sigmoid_act(hj));
+      }
+
+      return (omega * omega) / 2.0;
+   } // double runCase(int b, double[] input, double expected)
+
+   /*
+    * Sums the derivatives of every case in the mini-batch and updates the weights, like
+    *    AB1_Net.updateWeights. Each row of weights1 is copied into rowWeights once its derivatives are
+    *    summed, updated there by the optimizer and copied back.
+    *
+    * @param inputs: input data used to train network
+    * @param batchStart: index in inputs of the first case in the batch
+    * @param batchCases: number of cases in the batch
+    */
+   void updateWeights(double[][] inputs, int batchStart, int batchCases)
+   {
+      int row;
+      double sum, psi_bj;
+      double[] input;
+
+      optimizer.startStep();
+
+      for (int j = 0; j < numActs[1]; j++) // for each activation in hidden layer
+      {
+         // derivative for the weight from hidden node j to the output node
+         sum = 0.0;
+         for (int b = 0; b < batchCases; b++)
+         {
+            sum += batchH.getAtIndex(DOUBLE, (long) b * numActs[1] + j) * batchPsiOut[b];
+         }
+         deriv2[j] = -sum;
+
+         // derivatives for the row of weights into hidden node j
+         Arrays.fill(rowDeriv, 0.0);
+
+         for (int b = 0; b < batchCases; b++)
+         {
+            psi_bj = batchPsi.getAtIndex(DOUBLE, (long) b * numActs[1] + j);
+            input = inputs[batchStart + b];
+
+            for (int k = 0; k < numActs[0]; k++) // for each activation in input layer
+            {
+               rowDeriv[k] -= input[k] * psi_bj;
+            }
+         } // for (int b = 0; b < batchCases; b++)
+
+         row = j * numActs[0];
+         MemorySegment.copy(weights1, DOUBLE, 8L * row, rowWeights, 0, numActs[0]);
+         optimizer.apply(AB1_Optimizer.WEIGHTS1, rowDeriv, 0, rowWeights, 0, row, row + numActs[0]);
+         MemorySegment.copy(rowWeights, 0, weights1, DOUBLE, 8L * row, numActs[0]);
+      } // for (int j = 0; j < numActs[1]; j++)
+
+      MemorySegment.copy(weights2, DOUBLE, 0, rowWeights, 0, numActs[1]);
+      optimizer.apply(AB1_Optimizer.WEIGHTS2, deriv2, 0, rowWeights, 0, 0, numActs[1]);
+      MemorySegment.copy(rowWeights, 0, weights2, DOUBLE, 0, numActs[1]);
+
+   } // void updateWeights(double[][] inputs, int batchStart, int batchCases)
+
+   /*
+    * Copies the weights into net, which must already be allocated with the same configuration, e.g. to
+    *    report on or save them with AB1_Net's own functions.
+    *
+    * @param net: network to copy the weights into
+    */
+   public void copyTo(AB1_Net net)
+   {
+      MemorySegment.copy(weights1, DOUBLE, 0, net.weights1, 0, net.weights1.length);
+      MemorySegment.copy(weights2, DOUBLE, 0, net.weights2, 0, net.weights2.length);
+   }
+
+   /*
+    * Writes the weights to path in the AB1_ModelFile format, replacing any existing file. The file is
+    *    mapped and the weights copied straight into the mapping, so they never pass through the heap.
+    *
+    * @param path: file to write
+    */
+   public void save(String path) throws IOException
+   {
+      ByteBuffer header = AB1_ModelFile.header(numActs);
+      long start = header.limit();
+
+      try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            Arena mapping = Arena.ofConfined())
+      {
+         MemorySegment out = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+               start + weights1.byteSize() + weights2.byteSize(), mapping);
+
+         MemorySegment.copy(MemorySegment.ofBuffer(header), 0, out, 0, start);
+         MemorySegment.copy(weights1, 0, out, start, weights1.byteSize());
+         MemorySegment.copy(weights2, 0, out, start + weights1.byteSize(), weights2.byteSize());
+         out.force();
+      }
+   } // public void save(String path)
+
+   /*
+    * Writes any changes to a writably mapped weights file to storage. Does nothing if the weights were
+    *    allocated rather than mapped.
+    */
+   public void force()
+   {
+      if (file != null && !file.isReadOnly())
+      {
+         file.force();
+      }
+   }
+
+   /*
+    * Frees the off-heap memory, or unmaps the weights file, of every segment of the backend. Changes to a
+    *    mapped file are not forced to storage first; they reach it whenever the operating system writes
+    *    them back.
+    */
+   public void close()
+   {
+      arena.close();
+   }
+
+   /*
+    * Calculates the dot product of the n activations of act starting at byte actOffset with the n weights
+    *    of w starting at byte wOffset, with the Vector API kernel if useVector is set in the net and the
+    *    kernel was found, otherwise with a scalar loop.
+    *
+    * @param act: segment holding the activations of the previous layer
+    * @param actOffset: byte offset in act of the first activation
+    * @param w: segment holding the weights
+    * @param wOffset: byte offset in w of the first weight in the row
+    * @param n: number of activations/weights in the row
+    *
+    * @return the accumulated theta value
+    */
+   double dot(MemorySegment act, long actOffset, MemorySegment w, long wOffset, int n)
+   {
+      if (net.useVector && VECTOR_DOT != null)
+      {
+         try
+         {
+            return (double) VECTOR_DOT.invokeExact(act, actOffset, w, wOffset, n);
+         }
+         catch (Throwable t)
+         {
+            throw new RuntimeException(t);
+         }
+      } // if (net.useVector && VECTOR_DOT != null)
+
+      double sum = 0.0;
+
+      for (int k = 0; k < n; k++)
+      {
+         sum += act.get(DOUBLE, actOffset + 8L * k) * w.get(DOUBLE, wOffset + 8L * k);
+      }
+
+      return sum;
+   } // double dot(MemorySegment act, long actOffset, MemorySegment w, long wOffset, int n)
+
+   /*
+    * Looks up AB1_SegmentKernel.dotSegment. Loading the kernel fails if it wasn't compiled or the
+    *    jdk.incubator.vector module wasn't added, in which case the scalar loop is used.
+    *
+    * @return a handle to the kernel, or null if it is not available
+    */
+   private static MethodHandle findVectorDot()
+   {
+      try
+      {
+         Class<?> kernel = Class.forName("AB1_SegmentKernel");
+         return MethodHandles.lookup().findStatic(kernel, "dotSegment", MethodType.methodType(double.class,
+               MemorySegment.class, long.class, MemorySegment.class, long.class, int.class));
+      }
+      catch (ReflectiveOperationException | LinkageError e)
+      {
+         return null;
+      }
+   } // private static MethodHandle findVectorDot()
+
+} // public final class AB1_OffHeapNet
@@ -0,0 +1,327 @@
+/*
+ * This file implements online learning for AB1_Net: one writer thread keeps training the network on a
+ * stream of labeled cases while any number of reader threads serve predictions from it at the same time,
+ * so a served model can follow drift in its data without restarting.
+ *
+ * Readers never touch the network being trained. Every publishEvery mini-batches the writer copies the
+ * weights into a new immutable AB1_Model (copy-on-write) and publishes it with a single atomic reference
+ * write. A reader loads the reference once per prediction and runs the snapshot it got, so it always sees
+ * a complete set of weights from one point in training, never a half-updated weights1, and never takes a
+ * lock. Old snapshots are garbage collected once no reader is using them.
+ *
+ * Cases are handed to the writer through a bounded queue, so callers of learn block if the writer falls
+ * behind. The writer collects cases into mini-batches of the network's batchSize; whenever the queue
+ * runs dry it trains on the partial batch it has and publishes a snapshot, so a slow stream is never left
+ * waiting in a half-filled batch.
+ *
+ * Methods:
+ *    main: learns XOR from a stream, then follows a drift to OR while readers keep predicting through
+ *       caches.
+ *    AB1_OnlineLearner: publishes the network's current weights as the first snapshot.
+ *    start: starts the writer thread.
+ *    learn: queues one labeled case for the writer.
+ *    model: returns the latest published snapshot.
+ *    predict: runs the latest snapshot on one input. an overload answers repeated inputs from a cache
+ *       of the snapshot's predictions (see AB1_InferenceCache).
+ *    write: body of the writer thread, which trains on queued cases and publishes snapshots.
+ *    step: trains on one mini-batch of queued cases.
+ *    publish: copies the weights into a new snapshot and publishes it.
+ *    shutdown: stops the writer thread.
+ */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AB1_OnlineLearner
+{
+   /*
+    * ERROR_DECAY: weight of the newest case in the moving average of the error.
+    *
+    * net: the network being trained, used only by the writer thread after start.
+    * publishEvery: number of mini-batches between snapshots.
+    * current: the latest published snapshot.
+    * queue: labeled cases waiting for the writer, each an input followed by its expected output.
+    * writer: the writer thread.
+    *
+    * cases: number of cases trained on.
+    * snapshots: number of snapshots published.
+    * recentError: moving average of the error of the cases trained on, for watching drift.
+    */
+   static final double ERROR_DECAY = 1E-3;
+
+   final AB1_Net net;
+   final int publishEvery;
+   final AtomicReference<AB1_Model> current;
+   final BlockingQueue<double[]> queue;
+   Thread writer;
+
+   volatile long cases, snapshots;
+   volatile double recentError;
+
+   /*
+    * Learns XOR from a stream of cases while four reader threads predict continuously, then changes the
+    *    label of (1, 1) so the stream becomes OR and shows the served model following the drift.
+    *
+    * @param String[] args -- command line arguments
+    */
+   public static void main(String[] args) throws InterruptedException
+   {
+      AB1_Net net = new AB1_Net();
+      AtomicBoolean running = new AtomicBoolean(true);
+      LongAdder predictions = new LongAdder();
+      Thread[] readers = new Thread[4];
+      AB1_InferenceCache[] caches = new AB1_InferenceCache[readers.length];
+      long hits = 0, misses = 0, invalidations = 0;
+      double[][] inputs = {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}};
+      double[] xor = {0.0, 1.0, 1.0, 0.0}, or = {0.0, 1.0, 1.0, 1.0};
+
+      net.parametrize();
+      net.training = true;
+      net.parametrize_train();
+      net.numActs = new int[]{2, 4, 1};
+      net.lambda = 1.0;
+      net.optimizer = new AB1_Optimizer.Sgd(net.lambda);
+      net.allocate_train();
+      net.populateRandom();
+
+      AB1_OnlineLearner learner = new AB1_OnlineLearner(net, 16, 1024);
+      learner.start();
+
+      for (int r = 0; r < readers.length; r++)
+      {
+         AB1_InferenceCache cache = new AB1_InferenceCache(net.numActs[0], 16);
+
+         caches[r] = cache;
+         readers[r] = new Thread(() ->
+         {
+            AB1_Model.Context ctx = learner.model().newContext();
+            int c = 0;
+
+            while (running.get())
+            {
+               learner.predict(cache, ctx, inputs[c++ & 3]);
+               predictions.increment();
+            }
+         });
+         readers[r].start();
+      } // for (int r = 0; r < readers.length; r++)
+
+      for (int phase = 0; phase < 2; phase++) // XOR, then OR
+      {
+         for (int c = 0; c < 400000; c++)
+         {
+            learner.learn(inputs[c & 3], (phase == 0) ? xor[c & 3] : or[c & 3]);
+         }
+
+         while (!learner.queue.isEmpty()) // let the writer catch up before reporting
+         {
+            Thread.sleep(10);
+         }
+         Thread.sleep(10);
+
+         System.out.println(((phase == 0) ? "XOR" : "OR") + " after " + learner.cases + " cases, " +
+               learner.snapshots + " snapshots, " + predictions.sum() + " predictions served, recent error " +
+               learner.recentError);
+
+         AB1_Model.Context ctx = learner.model().newContext();
+         for (int c = 0; c < inputs.length; c++)
+         {
+            System.out.println("   " + inputs[c][0] + " " + inputs[c][1] + " -> " +
+                  learner.predict(ctx, inputs[c]));
+         }
+      } // for (int phase = 0; phase < 2; phase++)
+
+      running.set(false);
+      for (int r = 0; r < readers.length; r++)
+      {
+         readers[r].join();
+         hits += caches[r].hits();
+         misses += caches[r].misses();
+         invalidations += caches[r].invalidations();
+      }
+      learner.shutdown();
+
+      System.out.println("Reader caches: " + hits + " hits, " + misses + " misses, cleared " + invalidations +
+            " times for new snapshots");
+
+   } // public static void main(String[] args)
+
+   /*
+    * Sets up online learning for net, which must already be allocated for training and populated. The
+    *    network's current weights become the first snapshot.
+    *
+    * @param net: network to train
+    * @param publishEvery: number of mini-batches between snapshots
+    * @param queueCases: number of cases that can wait for the writer before learn blocks
+    */
+   public AB1_OnlineLearner(AB1_Net net, int publishEvery, int queueCases)
+   {
+      this.net = net;
+      this.publishEvery = publishEvery;
+      this.current = new AtomicReference<AB1_Model>(net.toModel());
+      this.queue = new ArrayBlockingQueue<double[]>(queueCases);
+   }
+
+   /*
+    * Starts the writer thread.
+    */
+   public void start()
+   {
+      writer = new Thread(this::write, "AB1_OnlineLearner writer");
+      writer.setDaemon(true);
+      writer.start();
+   }
+
+   /*
+    * Queues one labeled case for the writer, waiting if the queue is full. The input is copied, so the
+    *    caller may reuse its array.
+    *
+    * @param input: the case's input
+    * @param expected: the case's expected output
+    */
+   public void learn(double[] input, double expected) throws InterruptedException
+   {
+      double[] record = new double[net.nInEachInput + 1];
+
+      System.arraycopy(input, 0, record, 0, net.nInEachInput);
+      record[net.nInEachInput] = expected;
+      queue.put(record);
+   } // public void learn(double[] input, double expected)
+
+   /*
+    * @return the latest published snapshot of the weights
+    */
+   public AB1_Model model()
+   {
+      return current.get();
+   }
+
+   /*
+    * Runs the latest snapshot on input. Safe to call from any number of threads at once, as long as
+    *    each passes its own context; a context from any snapshot of this learner works with every other.
+    *
+    * @param ctx: the calling thread's context
+    * @param input: data for model to make predictions on
+    *
+    * @return prediction
+    */
+   public double predict(AB1_Model.Context ctx, double[] input)
+   {
+      return current.get().run(ctx, input);
+   }
+
+   /*
+    * Runs the latest snapshot on input like predict, answering from cache if the snapshot already ran on
+    *    an input with the same values. Publishing a new snapshot invalidates every cache: the next call
+    *    clears it before the lookup.
+    *
+    * @param cache: the calling thread's cache
+    * @param ctx: the calling thread's context
+    * @param input: data for model to make predictions on
+    *
+    * @return prediction
+    */
+   public double predict(AB1_InferenceCache cache, AB1_Model.Context ctx, double[] input)
+   {
+      return cache.run(current.get(), ctx, input);
+   }
+
+   /*
+    * Body of the writer thread. Collects queued cases into net's mini-batch arrays and trains on each
+    *    full batch, publishing a snapshot every publishEvery batches. When the queue is empty, trains on
+    *    the partial batch and publishes before waiting for more cases.
+    */
+   void write()
+   {
+      int n = 0, batches = 0;
+      double[] record;
+
+      try
+      {
+         while (true)
+         {
+            record = queue.poll();
+
+            if (record == null) // stream has gone quiet: catch up fully, then wait
+            {
+               if (n > 0)
+               {
+                  step(n);
+                  n = 0;
+               }
+               if (batches > 0)
+               {
+                  publish();
+                  batches = 0;
+               }
+
+               record = queue.take();
+            } // if (record == null)
+
+            System.arraycopy(record, 0, net.streamInputs[n], 0, net.nInEachInput);
+            net.streamOutputs[n] = record[net.nInEachInput];
+            n++;
+
+            if (n == net.batchSize)
+            {
+               step(n);
+               n = 0;
+
+               if (++batches == publishEvery)
+               {
+                  publish();
+                  batches = 0;
+               }
+            } // if (n == net.batchSize)
+         } // while (true)
+      }
+      catch (InterruptedException e)
+      {
+         // shut down
+      }
+   } // void write()
+
+   /*
+    * Trains on the first n cases of net's mini-batch arrays, exactly as one mini-batch of AB1_Net.train.
+    *
+    * @param n: number of cases in the mini-batch
+    */
+   void step(int n)
+   {
+      double predicted, omega, error = recentError;
+
+      for (int b = 0; b < n; b++)
+      {
+         predicted = net.run_train(net.streamInputs[b]);
+         omega = net.streamOutputs[b] - predicted;
+         net.backpropCase(b, omega, predicted);
+
+         error += ERROR_DECAY * ((omega * omega) / 2.0 - error);
+      }
+
+      net.updateWeights(net.streamInputs, 0, n);
+
+      recentError = error;
+      cases += n;
+   } // void step(int n)
+
+   /*
+    * Copies the weights into a new immutable model and publishes it to readers in one atomic write.
+    */
+   void publish()
+   {
+      current.set(net.toModel());
+      snapshots++;
+   }
+
+   /*
+    * Stops the writer thread. Cases still in the queue are dropped.
+    */
+   public void shutdown()
+   {
+      writer.interrupt();
+   }
+
+} // public class AB1_OnlineLearner
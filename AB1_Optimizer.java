@@ -0,0 +1,369 @@
+/*
+ * This file implements the optimizers AB1_Net can train with. An optimizer turns the derivatives of a
+ * mini-batch into changes to the weights and applies them in place, as soon as the derivatives of a row
+ * of weights are known, so no weight-sized gradient matrix is ever stored. Each optimizer keeps its state
+ * in flat double arrays with the same layout as the weights they belong to, one set of arrays per weight
+ * block, allocated once in allocate.
+ *
+ *    Sgd:      w += -lambda * deriv
+ *    Momentum: velocity = mu * velocity - lambda * deriv;  w += velocity
+ *    RmsProp:  meanSq = rho * meanSq + (1 - rho) * deriv^2;
+ *              w += -lambda * deriv / (sqrt(meanSq) + eps)
+ *    Adam:     m = beta1 * m + (1 - beta1) * deriv;  v = beta2 * v + (1 - beta2) * deriv^2;
+ *              w += -lambda * mHat / (sqrt(vHat) + eps), with m and v bias-corrected for the step
+ *
+ * Methods:
+ *    allocate: allocates the optimizer's state for weight blocks of the given sizes.
+ *    isAllocated: whether the optimizer's state has been allocated.
+ *    startStep: called once per mini-batch, before any apply call for the batch.
+ *    apply: updates weights[lo, hi) of a weight block from their derivatives. an overload takes the
+ *       weights in a buffer holding only part of the block, such as one row copied out of off-heap memory.
+ *    state: returns the optimizer's state arrays, so they can be checkpointed and restored.
+ *    type: returns a number identifying the kind of optimizer, so a checkpoint can be matched to it.
+ */
+public abstract class AB1_Optimizer
+{
+   /*
+    * WEIGHTS1, WEIGHTS2: block numbers of weights1 and weights2.
+    * SGD, MOMENTUM, RMSPROP, ADAM: values returned by type for each kind of optimizer.
+    *
+    * lambda: learning rate.
+    * step: number of mini-batches so far.
+    */
+   public static final int WEIGHTS1 = 0;
+   public static final int WEIGHTS2 = 1;
+
+   public static final int SGD = 0;
+   public static final int MOMENTUM = 1;
+   public static final int RMSPROP = 2;
+   public static final int ADAM = 3;
+
+   final double lambda;
+   int step;
+
+   AB1_Optimizer(double lambda)
+   {
+      this.lambda = lambda;
+   }
+
+   /*
+    * Allocates the optimizer's state, zeroed, for each weight block.
+    *
+    * @param blockSizes: number of weights in each block, indexed by block number
+    */
+   public abstract void allocate(int... blockSizes);
+
+   /*
+    * @return true if allocate has been called, or if the optimizer keeps no state
+    */
+   public abstract boolean isAllocated();
+
+   /*
+    * Starts a new mini-batch.
+    */
+   public void startStep()
+   {
+      step++;
+   }
+
+   /*
+    * Updates weights[lo, hi) and the optimizer's state for them, given the weights' derivatives. The
+    *    derivative of weights[i] is deriv[derivOffset + i - lo], so deriv can be a buffer holding just one
+    *    row of the block or a buffer laid out like the whole block. Calls for disjoint ranges of a block
+    *    may run on different threads.
+    *
+    * @param block: block number of the weights
+    * @param deriv: derivatives of the error with respect to the weights
+    * @param derivOffset: index in deriv of the derivative of weights[lo]
+    * @param weights: the block's weights, updated in place
+    * @param lo: first index to update
+    * @param hi: one past the last index to update
+    */
+   public void apply(int block, double[] deriv, int derivOffset, double[] weights, int lo, int hi)
+   {
+      apply(block, deriv, derivOffset, weights, lo, lo, hi);
+   }
+
+   /*
+    * Updates the weights with block indices [lo, hi) like the other apply, but with the weight of block
+    *    index i held at weights[weightsOffset + i - lo], so weights can be a buffer holding only part of
+    *    the block. The optimizer's state is still indexed by block index.
+    *
+    * @param block: block number of the weights
+    * @param deriv: derivatives of the error with respect to the weights
+    * @param derivOffset: index in deriv of the derivative of the weight at block index lo
+    * @param weights: buffer holding the weights, updated in place
+    * @param weightsOffset: index in weights of the weight at block index lo
+    * @param lo: first block index to update
+    * @param hi: one past the last block index to update
+    */
+   public abstract void apply(int block, double[] deriv, int derivOffset, double[] weights, int weightsOffset,
+         int lo, int hi);
+
+   /*
+    * @return every state array of the optimizer, in a fixed order. The arrays are the optimizer's own,
+    *    not copies, so restoring a checkpoint can read straight into them.
+    */
+   public abstract double[][] state();
+
+   /*
+    * @return SGD, MOMENTUM, RMSPROP or ADAM
+    */
+   public abstract int type();
+
+   /*
+    * Plain gradient descent. Keeps no state.
+    */
+   public static class Sgd extends AB1_Optimizer
+   {
+      public Sgd(double lambda)
+      {
+         super(lambda);
+      }
+
+      public void allocate(int... blockSizes)
+      {
+      }
+
+      public boolean isAllocated()
+      {
+         return true;
+      }
+
+      public double[][] state()
+      {
+         return new double[0][];
+      }
+
+      public int type()
+      {
+         return SGD;
+      }
+
+      public void apply(int block, double[] deriv, int derivOffset, double[] weights, int weightsOffset,
+            int lo, int hi)
+      {
+         int shift = derivOffset - lo, wShift = weightsOffset - lo;
+
+         for (int i = lo; i < hi; i++)
+         {
+            weights[i + wShift] += -lambda * deriv[i + shift];
+         }
+      }
+
+      public String toString()
+      {
+         return "SGD (lambda " + lambda + ")";
+      }
+   } // public static class Sgd extends AB1_Optimizer
+
+   /*
+    * Gradient descent with momentum.
+    * mu: fraction of the previous step carried into the next one.
+    * velocity: the previous step of every weight.
+    */
+   public static class Momentum extends AB1_Optimizer
+   {
+      final double mu;
+      double[][] velocity;
+
+      public Momentum(double lambda, double mu)
+      {
+         super(lambda);
+         this.mu = mu;
+      }
+
+      public void allocate(int... blockSizes)
+      {
+         velocity = new double[blockSizes.length][];
+
+         for (int block = 0; block < blockSizes.length; block++)
+         {
+            velocity[block] = new double[blockSizes[block]];
+         }
+      }
+
+      public boolean isAllocated()
+      {
+         return velocity != null;
+      }
+
+      public void apply(int block, double[] deriv, int derivOffset, double[] weights, int weightsOffset,
+            int lo, int hi)
+      {
+         int shift = derivOffset - lo, wShift = weightsOffset - lo;
+         double[] vel = velocity[block];
+
+         for (int i = lo; i < hi; i++)
+         {
+            vel[i] = mu * vel[i] - lambda * deriv[i + shift];
+            weights[i + wShift] += vel[i];
+         }
+      }
+
+      public double[][] state()
+      {
+         return velocity;
+      }
+
+      public int type()
+      {
+         return MOMENTUM;
+      }
+
+      public String toString()
+      {
+         return "Momentum (lambda " + lambda + ", mu " + mu + ")";
+      }
+   } // public static class Momentum extends AB1_Optimizer
+
+   /*
+    * RMSProp: divides each step by a running root mean square of the weight's derivatives.
+    * rho: decay rate of the running mean.
+    * eps: added to the root mean square to avoid dividing by zero.
+    * meanSq: running mean of the squared derivative of every weight.
+    */
+   public static class RmsProp extends AB1_Optimizer
+   {
+      final double rho, eps;
+      double[][] meanSq;
+
+      public RmsProp(double lambda, double rho, double eps)
+      {
+         super(lambda);
+         this.rho = rho;
+         this.eps = eps;
+      }
+
+      public void allocate(int... blockSizes)
+      {
+         meanSq = new double[blockSizes.length][];
+
+         for (int block = 0; block < blockSizes.length; block++)
+         {
+            meanSq[block] = new double[blockSizes[block]];
+         }
+      }
+
+      public boolean isAllocated()
+      {
+         return meanSq != null;
+      }
+
+      public void apply(int block, double[] deriv, int derivOffset, double[] weights, int weightsOffset,
+            int lo, int hi)
+      {
+         int shift = derivOffset - lo, wShift = weightsOffset - lo;
+         double d;
+         double[] ms = meanSq[block];
+
+         for (int i = lo; i < hi; i++)
+         {
+            d = deriv[i + shift];
+            ms[i] = rho * ms[i] + (1.0 - rho) * d * d;
+            weights[i + wShift] += -lambda * d / (Math.sqrt(ms[i]) + eps);
+         }
+      }
+
+      public double[][] state()
+      {
+         return meanSq;
+      }
+
+      public int type()
+      {
+         return RMSPROP;
+      }
+
+      public String toString()
+      {
+         return "RMSProp (lambda " + lambda + ", rho " + rho + ")";
+      }
+   } // public static class RmsProp extends AB1_Optimizer
+
+   /*
+    * Adam: momentum on the derivatives, scaled by a running root mean square, both bias-corrected for the
+    *    number of steps taken.
+    * beta1, beta2: decay rates of the first and second moments.
+    * eps: added to the root mean square to avoid dividing by zero.
+    * m, v: first and second moments of every weight.
+    * stepSize: lambda with this step's bias correction applied, set by startStep.
+    */
+   public static class Adam extends AB1_Optimizer
+   {
+      final double beta1, beta2, eps;
+      double[][] m, v;
+      double stepSize;
+
+      public Adam(double lambda, double beta1, double beta2, double eps)
+      {
+         super(lambda);
+         this.beta1 = beta1;
+         this.beta2 = beta2;
+         this.eps = eps;
+      }
+
+      public void allocate(int... blockSizes)
+      {
+         m = new double[blockSizes.length][];
+         v = new double[blockSizes.length][];
+
+         for (int block = 0; block < blockSizes.length; block++)
+         {
+            m[block] = new double[blockSizes[block]];
+            v[block] = new double[blockSizes[block]];
+         }
+      }
+
+      public boolean isAllocated()
+      {
+         return m != null;
+      }
+
+      /*
+       * Folds both bias corrections into one step size, lambda * sqrt(1 - beta2^t) / (1 - beta1^t), so
+       *    apply doesn't correct every moment separately.
+       */
+      public void startStep()
+      {
+         super.startStep();
+         stepSize = lambda * Math.sqrt(1.0 - Math.pow(beta2, step)) / (1.0 - Math.pow(beta1, step));
+      }
+
+      public void apply(int block, double[] deriv, int derivOffset, double[] weights, int weightsOffset,
+            int lo, int hi)
+      {
+         int shift = derivOffset - lo, wShift = weightsOffset - lo;
+         double d;
+         double[] mb = m[block], vb = v[block];
+
+         for (int i = lo; i < hi; i++)
+         {
+            d = deriv[i + shift];
+            mb[i] = beta1 * mb[i] + (1.0 - beta1) * d;
+            vb[i] = beta2 * vb[i] + (1.0 - beta2) * d * d;
+            weights[i + wShift] += -stepSize * mb[i] / (Math.sqrt(vb[i]) + eps);
+         }
+      }
+
+      public double[][] state()
+      {
+         double[][] state = new double[m.length + v.length][];
+
+         System.arraycopy(m, 0, state, 0, m.length);
+         System.arraycopy(v, 0, state, m.length, v.length);
+         return state;
+      }
+
+      public int type()
+      {
+         return ADAM;
+      }
+
+      public String toString()
+      {
+         return "Adam (lambda " + lambda + ", beta1 " + beta1 + ", beta2 " + beta2 + ")";
+      }
+   } // public static class Adam extends AB1_Optimizer
+
+} // public abstract class AB1_Optimizer
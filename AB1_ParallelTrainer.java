@@ -0,0 +1,304 @@
+/*
+ * This file implements a data-parallel trainer for AB1_Net. Each mini-batch is split into one fixed,
+ * contiguous chunk of cases per worker, and the chunks are run on a ForkJoinPool. Every worker has its
+ * own activation, theta, psi and derivative buffers, so the only state shared between threads is the
+ * weights, which are read-only until the whole batch has finished.
+ *
+ * The per-worker derivatives are combined by adding the workers' buffers in worker order for every
+ * weight, and each range of weights is updated by the optimizer as soon as it is combined, so the net
+ * needs no weight-sized derivative or gradient buffers of its own. Since the chunk boundaries depend only
+ * on the batch and the number of workers, not on which thread finishes first, a run with the same weights
+ * and the same number of workers always produces the same result.
+ *
+ * Only the cases within a mini-batch are split, and every batch costs two invokeAll round trips, one for
+ * the chunks and one for the reduction. Training on several threads therefore only pays off when batches
+ * hold many more cases than there are workers, typically hundreds; the constructor refuses a batchSize
+ * smaller than the number of workers, since some workers would never get a case.
+ *
+ * Methods:
+ *    AB1_ParallelTrainer: creates the worker buffers and the pool for a given network.
+ *    train: trains the network using mini-batch gradient descent, in parallel within each batch.
+ *    runBatch: runs every chunk of a batch, combines the workers' derivatives and updates the weights.
+ *    runChunk: runs one worker's chunk of cases forward and backward on its own buffers.
+ *    reduceRange: adds the workers' derivatives for a range of weights1 in worker order and applies them.
+ *    shutdown: stops the pool's threads.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+public class AB1_ParallelTrainer
+{
+   /*
+    * net: the network being trained. its weights and totalError are updated by the trainer.
+    * nWorkers: number of chunks each batch is split into, and the parallelism of the pool.
+    * pool: threads that run the chunks and the reduction.
+    * workers: per-worker buffers, one for each chunk.
+    */
+   AB1_Net net;
+   int nWorkers;
+   ForkJoinPool pool;
+   Worker[] workers;
+
+   /*
+    * Per-worker buffers. deriv1 and deriv2 use the same layout as the net's weights1 and weights2, and
+    *    hold the derivatives summed over the cases of the worker's chunk.
+    */
+   static class Worker
+   {
+      double[] h, theta, psi, deriv1, deriv2;
+      double thetaOut;
+
+      Worker(int[] numActs)
+      {
+         h = new double[numActs[1]];
+         theta = new double[numActs[1]];
+         psi = new double[numActs[1]];
+         deriv1 = new double[numActs[1] * numActs[0]];
+         deriv2 = new double[numActs[2] * numActs[1]];
+      }
+   } // static class Worker
+
+   /*
+    * Creates the trainer. The net must already be parametrized, allocated with allocate_train and
+    *    populated with its starting weights.
+    *
+    * @param net: the network to train
+    * @param nWorkers: number of worker threads
+    *
+    * @throws IllegalArgumentException if net's batchSize is smaller than nWorkers
+    */
+   public AB1_ParallelTrainer(AB1_Net net, int nWorkers)
+   {
+      if (net.batchSize < nWorkers)
+      {
+         throw new IllegalArgumentException("mini-batches of " + net.batchSize + " cases can't be split " +
+               "across " + nWorkers + " threads; set batchSize to at least nThreads");
+      }
+
+      this.net = net;
+      this.nWorkers = nWorkers;
+
+      pool = new ForkJoinPool(nWorkers);
+      workers = new Worker[nWorkers];
+
+      for (int w = 0; w < nWorkers; w++)
+      {
+         workers[w] = new Worker(net.numActs);
+      }
+   } // public AB1_ParallelTrainer(AB1_Net net, int nWorkers)
+
+   /*
+    * Trains the network using mini-batch gradient descent, stopping under the same conditions as
+    *    AB1_Net.train. iteration and avgErr are stored in the net so its reporting functions still work.
+    *
+    * @param inputs: input data used to train network
+    * @param outputs: expected outputs for network
+    */
+   public void train(double[][] inputs, double[] outputs)
+   {
+      int batchCases;
+
+      net.iteration = net.startIteration;
+
+      while (net.keepTraining())
+      {
+         if (net.telemetry != null)
+         {
+            net.telemetry.startEpoch();
+         }
+
+         for (int batchStart = 0; batchStart < inputs.length; batchStart += net.batchSize)
+         {
+            batchCases = Math.min(net.batchSize, inputs.length - batchStart);
+
+            runBatch(inputs, outputs, batchStart, batchCases);
+         } // for (int batchStart = 0; batchStart < inputs.length; batchStart += net.batchSize)
+
+         net.iteration++;
+
+         // calculate average error
+         net.avgErr = 0.0;
+         for (int train_case = 0; train_case < net.nCases; train_case++)
+         {
+            net.avgErr += net.totalError[train_case];
+         }
+
+         net.avgErr /= net.nCases;
+
+         if (net.telemetry != null)
+         {
+            net.telemetry.endEpoch(net.iteration, net.avgErr, inputs.length);
+         }
+
+         net.checkpoint();
+         net.validate();
+
+      } // while (net.keepTraining())
+
+      net.reportStop();
+
+   } // public void train(double[][] inputs, double[] outputs)
+
+   /*
+    * Runs one mini-batch and updates the weights. Worker w handles the cases from batchStart + w *
+    *    batchCases / nWorkers up to the start of worker w + 1's chunk; afterwards the weights1 derivatives
+    *    are reduced and applied in parallel over disjoint ranges of weights, and the small weights2
+    *    derivatives are reduced and applied on the calling thread.
+    *
+    * @param inputs: input data used to train network
+    * @param outputs: expected outputs for network
+    * @param batchStart: index in inputs of the first case in the batch
+    * @param batchCases: number of cases in the batch
+    */
+   public void runBatch(double[][] inputs, double[] outputs, int batchStart, int batchCases)
+   {
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nWorkers);
+      int nWeights1 = net.weights1.length;
+      long chunksStart = net.tick(), reduceStart;
+
+      net.optimizer.startStep();
+
+      for (int w = 0; w < nWorkers; w++)
+      {
+         Worker worker = workers[w];
+         int lo = batchStart + (int) ((long) w * batchCases / nWorkers);
+         int hi = batchStart + (int) ((long) (w + 1) * batchCases / nWorkers);
+
+         tasks.add(() ->
+         {
+            runChunk(worker, inputs, outputs, lo, hi);
+            return null;
+         });
+      } // for (int w = 0; w < nWorkers; w++)
+
+      pool.invokeAll(tasks);
+      reduceStart = net.tick();
+
+      tasks.clear();
+      for (int w = 0; w < nWorkers; w++)
+      {
+         int lo = (int) ((long) w * nWeights1 / nWorkers);
+         int hi = (int) ((long) (w + 1) * nWeights1 / nWorkers);
+
+         tasks.add(() ->
+         {
+            reduceRange(lo, hi);
+            return null;
+         });
+      } // for (int w = 0; w < nWorkers; w++)
+
+      pool.invokeAll(tasks);
+
+      for (int j = 0; j < net.deriv2.length; j++)
+      {
+         net.deriv2[j] = 0.0;
+         for (int w = 0; w < nWorkers; w++)
+         {
+            net.deriv2[j] += workers[w].deriv2[j];
+         }
+      } // for (int j = 0; j < net.deriv2.length; j++)
+
+      net.optimizer.apply(AB1_Optimizer.WEIGHTS2, net.deriv2, 0, net.weights2, 0, net.deriv2.length);
+
+      // the chunks are reported as the forward phase and the reduction and update as the backward phase
+      if (net.telemetry != null)
+      {
+         net.telemetry.addPhases(reduceStart - chunksStart, net.tick() - reduceStart);
+      }
+
+   } // public void runBatch(double[][] inputs, double[] outputs, int batchStart, int batchCases)
+
+   /*
+    * Runs the cases [lo, hi) forward and backward on one worker's buffers, summing their derivatives
+    *    into the worker's deriv1 and deriv2 and storing each case's error in the net's totalError.
+    *
+    * @param worker: buffers of the worker running the chunk
+    * @param inputs: input data used to train network
+    * @param outputs: expected outputs for network
+    * @param lo: first case of the chunk
+    * @param hi: one past the last case of the chunk
+    */
+   void runChunk(Worker worker, double[][] inputs, double[] outputs, int lo, int hi)
+   {
+      int[] numActs = net.numActs;
+      double[] input;
+      double predicted, omega, psiOut;
+      int row;
+
+      Arrays.fill(worker.deriv1, 0.0);
+      Arrays.fill(worker.deriv2, 0.0);
+
+      for (int case_ = lo; case_ < hi; case_++)
+      {
+         input = inputs[case_];
+
+         // forward pass
+         for (int j = 0; j < numActs[1]; j++)
+         {
+            worker.theta[j] = net.dot(input, net.weights1, j * numActs[0], numActs[0]);
+            worker.h[j] = net.activate(worker.theta[j]);
+         }
+         worker.thetaOut = net.dot(worker.h, net.weights2, 0, numActs[1]);
+
+         predicted = net.activate(worker.thetaOut);
+         omega = outputs[case_] - predicted;
+
+         // backward pass, with the activation derivatives taken from the forward pass's activations
+         psiOut = omega * AB1_Net.derive_sigmoid_act(predicted);
+
+         for (int j = 0; j < numActs[1]; j++)
+         {
+            worker.deriv2[j] -= worker.h[j] * psiOut;
+            worker.psi[j] = psiOut * net.weights2[j] * AB1_Net.derive_sigmoid_act(worker.h[j]);
+
+            row = j * numActs[0];
+            for (int k = 0; k < numActs[0]; k++)
+            {
+               worker.deriv1[row + k] -= input[k] * worker.psi[j];
+            }
+         } // for (int j = 0; j < numActs[1]; j++)
+
+         net.totalError[case_] = (omega * omega) / 2.0;
+
+      } // for (int case_ = lo; case_ < hi; case_++)
+
+   } // void runChunk(Worker worker, double[][] inputs, double[] outputs, int lo, int hi)
+
+   /*
+    * Sums the workers' weights1 derivatives over the flat index range [lo, hi), always in worker order,
+    *    into the first worker's deriv1 and has the net's optimizer apply them to the range of weights1.
+    *
+    * @param lo: first index of the range
+    * @param hi: one past the last index of the range
+    */
+   void reduceRange(int lo, int hi)
+   {
+      double sum;
+
+      for (int i = lo; i < hi; i++)
+      {
+         sum = 0.0;
+         for (int w = 0; w < nWorkers; w++)
+         {
+            sum += workers[w].deriv1[i];
+         }
+
+         workers[0].deriv1[i] = sum;
+      } // for (int i = lo; i < hi; i++)
+
+      net.optimizer.apply(AB1_Optimizer.WEIGHTS1, workers[0].deriv1, lo, net.weights1, lo, hi);
+
+   } // void reduceRange(int lo, int hi)
+
+   /*
+    * Stops the pool's threads once training is done.
+    */
+   public void shutdown()
+   {
+      pool.shutdown();
+   }
+
+} // public class AB1_ParallelTrainer
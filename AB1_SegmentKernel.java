@@ -0,0 +1,76 @@
+/*
+ * This file implements the theta accumulation kernel for AB1_OffHeapNet using the jdk.incubator.vector
+ * API, loading vectors straight from off-heap memory segments. It is kept separate from AB1_VectorKernel
+ * because the Foreign Function and Memory API is still a preview API in JDK 21: a class using it only
+ * loads with --enable-preview, and AB1_VectorKernel has to keep loading without it. AB1_OffHeapNet looks
+ * the kernel up at startup and falls back to its own scalar loop if it can't be loaded.
+ *
+ * Compile and run with:
+ *    javac --release 21 --enable-preview --add-modules jdk.incubator.vector AB1_SegmentKernel.java
+ *    java --enable-preview --add-modules jdk.incubator.vector AB1_Net
+ *
+ * Methods:
+ *    dotSegment: dot product of a row of activations with a row of weights, both stored as little-endian
+ *       doubles in memory segments.
+ */
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public final class AB1_SegmentKernel
+{
+   /*
+    * SPECIES: the widest double vector shape supported by the hardware.
+    * DOUBLE: layout of the values in the segments, a little-endian double.
+    */
+   static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+   static final ValueLayout.OfDouble DOUBLE = ValueLayout.JAVA_DOUBLE.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+   private AB1_SegmentKernel()
+   {
+   }
+
+   /*
+    * Calculates the dot product of the n doubles of act starting at byte actOffset with the n doubles of
+    *    w starting at byte wOffset. Full vectors are loaded from the segments and accumulated lane-wise
+    *    with fused multiply-adds, in the same order as AB1_VectorKernel.dot, so both give the same result
+    *    for the same values.
+    *
+    * @param act: segment holding the activations of the previous layer
+    * @param actOffset: byte offset in act of the first activation
+    * @param w: segment holding the weights
+    * @param wOffset: byte offset in w of the first weight in the row
+    * @param n: number of activations/weights in the row
+    *
+    * @return the accumulated theta value
+    */
+   public static double dotSegment(MemorySegment act, long actOffset, MemorySegment w, long wOffset, int n)
+   {
+      DoubleVector acc = DoubleVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(n);
+      int k = 0;
+
+      for (; k < upper; k += SPECIES.length())
+      {
+         DoubleVector va = DoubleVector.fromMemorySegment(SPECIES, act, actOffset + 8L * k,
+               ByteOrder.LITTLE_ENDIAN);
+         DoubleVector vw = DoubleVector.fromMemorySegment(SPECIES, w, wOffset + 8L * k,
+               ByteOrder.LITTLE_ENDIAN);
+         acc = va.fma(vw, acc);
+      }
+
+      double sum = acc.reduceLanes(VectorOperators.ADD);
+
+      for (; k < n; k++) // tail that doesn't fill a full vector
+      {
+         sum += act.get(DOUBLE, actOffset + 8L * k) * w.get(DOUBLE, wOffset + 8L * k);
+      }
+
+      return sum;
+   } // public static double dotSegment(MemorySegment act, long actOffset, MemorySegment w, ...)
+
+} // public final class AB1_SegmentKernel
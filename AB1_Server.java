@@ -0,0 +1,472 @@
+/*
+ * This file implements a loopback inference server for AB1_Net with adaptive micro-batching. Clients
+ * connect over TCP on the loopback interface and send requests; instead of running one forward pass per
+ * request, the server queues the requests of every client and a single batcher thread runs them through
+ * AB1_Net.runBatch in micro-batches.
+ *
+ * A micro-batch is flushed as soon as it holds maxBatch requests or its oldest request has waited
+ * maxDelay nanoseconds, whichever comes first. Under light load every request is answered within about
+ * maxDelay plus one forward pass; under heavy load batches fill before the deadline, and the batched
+ * matrix multiply in runBatch raises throughput well above one pass per request.
+ *
+ * Protocol (all values big-endian, as written by DataOutputStream):
+ *    request:  numActs[0] doubles, the input
+ *    response: one double, the prediction
+ * A connection may send any number of requests one after another, each waiting for its response, and
+ * ends when the client closes it. If the server is closed or its batcher stops, every open connection is
+ * closed, including those with a request still waiting for its response.
+ *
+ * Methods:
+ *    main: serves the network configured in AB1_Net.parametrize and load-tests it from local clients.
+ *    AB1_Server: binds the server to a loopback port.
+ *    start: starts the acceptor and batcher threads.
+ *    port: the port the server is listening on.
+ *    accept: body of the acceptor thread, which hands every new connection to a client thread.
+ *    serve: body of a client thread, which reads a connection's requests and writes their responses.
+ *    batch: body of the batcher thread, which collects and runs micro-batches.
+ *    fail: wakes the client of a request that will never be answered.
+ *    close: stops the server.
+ *    loadTest: sends requests from many local clients at once and reports throughput and latency.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class AB1_Server implements AutoCloseable
+{
+   /*
+    * One client's request. Each connection reuses a single Request for all of its requests, since it
+    *    waits for every response before sending the next request.
+    * input: the request's input.
+    * output: the prediction, set by the batcher.
+    * enqueued: System.nanoTime() when the request was queued.
+    * done: set by the batcher once output is ready, or once the request has failed.
+    * failed: set by the batcher, before done, if the request will never be answered.
+    * waiter: the client thread waiting for the response.
+    */
+   static class Request
+   {
+      final double[] input;
+      double output;
+      long enqueued;
+      volatile boolean done, failed;
+      final Thread waiter;
+
+      Request(int nInputs)
+      {
+         input = new double[nInputs];
+         waiter = Thread.currentThread();
+      }
+   } // static class Request
+
+   /*
+    * net: the network serving requests, used only by the batcher thread.
+    * maxBatch: largest number of requests run in one micro-batch.
+    * maxDelay: longest time, in nanoseconds, the oldest request of a micro-batch waits for it to fill.
+    *
+    * server: the listening socket.
+    * queue: requests waiting for the batcher. bounded, so clients block once the batcher falls far
+    *    behind.
+    * clients: threads serving the open connections.
+    * sockets: the open connections, so close can wake client threads blocked reading from them.
+    * acceptor, batcher: the acceptor and batcher threads.
+    * closed: set once the server is closed or the batcher has stopped; no request is answered after it.
+    *
+    * batch: requests of the current micro-batch.
+    * batchInputs: inputs of the current micro-batch, referring to the requests' own arrays.
+    * batchOut: predictions for the current micro-batch.
+    *
+    * nBatches, nRequests: number of micro-batches run and of requests answered.
+    */
+   final AB1_Net net;
+   final int maxBatch;
+   final long maxDelay;
+
+   final ServerSocket server;
+   final BlockingQueue<Request> queue;
+   final ExecutorService clients;
+   final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+   Thread acceptor, batcher;
+   volatile boolean closed;
+
+   final Request[] batch;
+   final double[][] batchInputs;
+   final double[] batchOut;
+
+   volatile long nBatches, nRequests;
+
+   /*
+    * Serves the network set up by AB1_Net.parametrize in running mode on an ephemeral loopback port,
+    *    load-tests it with 64 local clients and prints the results.
+    *
+    * @param String[] args -- command line arguments
+    */
+   public static void main(String[] args) throws Exception
+   {
+      AB1_Net net = new AB1_Net();
+
+      net.parametrize();
+      net.allocate_run();
+      net.populateHardCode();
+
+      if (net.weightsIn != null) // replace the hardcoded weights with saved ones
+      {
+         net.loadWeights(net.weightsIn);
+      }
+
+      try (AB1_Server server = new AB1_Server(net, 64, 200000, 0))
+      {
+         server.start();
+         loadTest(server.port(), net.numActs[0], 64, 2000);
+
+         System.out.println("Micro-batches: " + server.nBatches + ", mean size " +
+               (double) server.nRequests / server.nBatches);
+      }
+
+   } // public static void main(String[] args)
+
+   /*
+    * Binds a server for net to a port on the loopback interface. net must already be set up for running
+    *    and must not be used by anything else while the server runs.
+    *
+    * @param net: network to serve
+    * @param maxBatch: largest number of requests run in one micro-batch
+    * @param maxDelay: longest time, in nanoseconds, a request waits for its micro-batch to fill
+    * @param port: port to listen on, or 0 for any free port
+    */
+   public AB1_Server(AB1_Net net, int maxBatch, long maxDelay, int port) throws IOException
+   {
+      this.net = net;
+      this.maxBatch = maxBatch;
+      this.maxDelay = maxDelay;
+
+      server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+      queue = new ArrayBlockingQueue<Request>(4 * maxBatch);
+      clients = Executors.newCachedThreadPool();
+
+      batch = new Request[maxBatch];
+      batchInputs = new double[maxBatch][];
+      batchOut = new double[maxBatch];
+   } // public AB1_Server(AB1_Net net, int maxBatch, long maxDelay, int port)
+
+   /*
+    * Starts accepting connections and running micro-batches.
+    */
+   public void start()
+   {
+      acceptor = new Thread(this::accept, "AB1_Server acceptor");
+      batcher = new Thread(this::batch, "AB1_Server batcher");
+      acceptor.setDaemon(true);
+      batcher.setDaemon(true);
+
+      batcher.start();
+      acceptor.start();
+   } // public void start()
+
+   /*
+    * @return the port the server is listening on
+    */
+   public int port()
+   {
+      return server.getLocalPort();
+   }
+
+   /*
+    * Body of the acceptor thread. Hands every new connection to its own client thread until the server
+    *    is closed.
+    */
+   void accept()
+   {
+      try
+      {
+         while (true)
+         {
+            Socket socket = server.accept();
+            sockets.add(socket);
+
+            if (closed) // close may already have closed the sockets it knew of
+            {
+               socket.close();
+               break;
+            }
+
+            socket.setTcpNoDelay(true);
+            clients.execute(() -> serve(socket));
+         } // while (true)
+      }
+      catch (IOException | RejectedExecutionException e)
+      {
+         // closed
+      }
+   } // void accept()
+
+   /*
+    * Body of a client thread. Reads each request of a connection, queues it for the batcher, parks until
+    *    its prediction is ready and writes the response, until the client closes the connection. The
+    *    connection is dropped without a response if the request fails, the server is closed or the
+    *    thread is interrupted while it waits.
+    *
+    * @param socket: the client's connection
+    */
+   void serve(Socket socket)
+   {
+      try (Socket s = socket;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream())))
+      {
+         Request request = new Request(net.numActs[0]);
+
+         while (true)
+         {
+            for (int k = 0; k < request.input.length; k++)
+            {
+               request.input[k] = in.readDouble();
+            }
+
+            if (closed) // nothing will answer the request
+            {
+               break;
+            }
+
+            request.done = false;
+            request.enqueued = System.nanoTime();
+            queue.put(request);
+
+            while (!request.done && !closed && !Thread.currentThread().isInterrupted())
+            {
+               LockSupport.park(this);
+            }
+
+            if (!request.done || request.failed)
+            {
+               break;
+            }
+
+            out.writeDouble(request.output);
+            out.flush();
+         } // while (true)
+      }
+      catch (EOFException e)
+      {
+         // client closed the connection
+      }
+      catch (IOException | InterruptedException e)
+      {
+         // connection failed or server closed
+      }
+      finally
+      {
+         sockets.remove(socket);
+      }
+   } // void serve(Socket socket)
+
+   /*
+    * Body of the batcher thread. Waits for a request, then keeps adding queued requests to the micro-batch
+    *    until it holds maxBatch requests or maxDelay has passed since the first one was queued. Requests
+    *    that are already queued when the deadline passes still join the batch, up to maxBatch. The batch
+    *    is run through runBatch and every waiting client is woken with its prediction.
+    *
+    * When the batcher stops, because the server was closed or runBatch threw, it marks the server closed
+    *    and fails the requests of the current batch and every queued request, so no client waits for it.
+    */
+   void batch()
+   {
+      int n = 0;
+      long deadline, remaining;
+      Request request;
+
+      try
+      {
+         while (true)
+         {
+            batch[0] = queue.take();
+            deadline = batch[0].enqueued + maxDelay;
+            n = 1;
+
+            while (n < maxBatch)
+            {
+               remaining = deadline - System.nanoTime();
+               request = (remaining > 0) ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+
+               if (request == null) // deadline passed and nothing else is waiting
+               {
+                  break;
+               }
+
+               batch[n++] = request;
+            } // while (n < maxBatch)
+
+            for (int b = 0; b < n; b++)
+            {
+               batchInputs[b] = batch[b].input;
+            }
+
+            net.runBatch(batchInputs, n, batchOut);
+
+            for (int b = 0; b < n; b++)
+            {
+               request = batch[b];
+               batch[b] = null;
+               batchInputs[b] = null;
+
+               request.output = batchOut[b];
+               request.done = true;
+               LockSupport.unpark(request.waiter);
+            } // for (int b = 0; b < n; b++)
+
+            nBatches++;
+            nRequests += n;
+         } // while (true)
+      }
+      catch (InterruptedException e)
+      {
+         // closed
+      }
+      finally
+      {
+         closed = true;
+
+         for (int b = 0; b < n; b++)
+         {
+            if (batch[b] != null)
+            {
+               fail(batch[b]);
+               batch[b] = null;
+            }
+         }
+
+         while ((request = queue.poll()) != null)
+         {
+            fail(request);
+         }
+      } // finally
+   } // void batch()
+
+   /*
+    * Wakes the client waiting for a request that will never be answered.
+    *
+    * @param request: the failed request
+    */
+   static void fail(Request request)
+   {
+      request.failed = true;
+      request.done = true;
+      LockSupport.unpark(request.waiter);
+   }
+
+   /*
+    * Stops accepting connections, closes the open ones and stops the batcher. Client threads blocked
+    *    reading a request are woken by their socket closing, and those waiting for a response by being
+    *    interrupted.
+    */
+   public void close() throws IOException
+   {
+      closed = true;
+      server.close();
+      clients.shutdownNow();
+
+      for (Socket socket : sockets)
+      {
+         socket.close();
+      }
+
+      if (batcher != null)
+      {
+         batcher.interrupt();
+      }
+   } // public void close()
+
+   /*
+    * Connects nClients clients to a server on this host, has each send nRequests random requests one
+    *    after another, and prints the overall throughput and the median, 99th percentile and maximum
+    *    request latency.
+    *
+    * @param port: port the server is listening on
+    * @param nInputs: number of values in each input
+    * @param nClients: number of clients sending at the same time
+    * @param nRequests: number of requests each client sends
+    */
+   public static void loadTest(int port, int nInputs, int nClients, int nRequests) throws Exception
+   {
+      ExecutorService pool = Executors.newFixedThreadPool(nClients);
+      List<Callable<long[]>> tasks = new ArrayList<Callable<long[]>>(nClients);
+      long[] latencies = new long[nClients * nRequests];
+      long start, elapsed;
+      int c = 0;
+
+      for (int client = 0; client < nClients; client++)
+      {
+         long seed = client;
+
+         tasks.add(() ->
+         {
+            long[] times = new long[nRequests];
+            SplittableRandom random = new SplittableRandom(seed);
+            long sent;
+
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                  DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream()));
+                  DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream())))
+            {
+               socket.setTcpNoDelay(true);
+
+               for (int r = 0; r < nRequests; r++)
+               {
+                  sent = System.nanoTime();
+                  for (int k = 0; k < nInputs; k++)
+                  {
+                     out.writeDouble(random.nextDouble());
+                  }
+                  out.flush();
+
+                  in.readDouble();
+                  times[r] = System.nanoTime() - sent;
+               } // for (int r = 0; r < nRequests; r++)
+            }
+
+            return times;
+         });
+      } // for (int client = 0; client < nClients; client++)
+
+      start = System.nanoTime();
+      for (Future<long[]> future : pool.invokeAll(tasks))
+      {
+         for (long time : future.get())
+         {
+            latencies[c++] = time;
+         }
+      }
+      elapsed = System.nanoTime() - start;
+      pool.shutdown();
+
+      Arrays.sort(latencies);
+      System.out.println(latencies.length + " requests from " + nClients + " clients in " +
+            elapsed / 1000000 + " ms: " + (long) (latencies.length * 1E9 / elapsed) + " requests/s");
+      System.out.println("Latency: median " + latencies[latencies.length / 2] / 1000 + " us, p99 " +
+            latencies[(int) (latencies.length * 0.99)] / 1000 + " us, max " +
+            latencies[latencies.length - 1] / 1000 + " us");
+   } // public static void loadTest(int port, int nInputs, int nClients, int nRequests)
+
+} // public class AB1_Server
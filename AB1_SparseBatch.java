@@ -0,0 +1,109 @@
+/*
+ * This file implements a batch of sparse input cases for AB1_Net in compressed sparse row (CSR) form.
+ * Only the non-zero inputs of each case are stored: case c's non-zero inputs are at positions
+ * rowStart[c] up to rowStart[c + 1] of index (the input's position in the dense case) and value (the
+ * input's value), with the indices of each case in increasing order.
+ *
+ * For inputs that are mostly zeros, the batch takes a fraction of the memory of the dense double[][],
+ * and AB1_Net's sparse forward and backward passes (runSparse, train(AB1_SparseBatch, double[])) do work
+ * in proportion to the non-zero inputs only. A single sparse case is just one row: an index array and a
+ * value array.
+ *
+ * Methods:
+ *    AB1_SparseBatch: wraps existing CSR arrays.
+ *    fromDense: builds a batch from dense cases, keeping their non-zero inputs.
+ *    nCases: number of cases in the batch.
+ *    nonZeros: number of non-zero inputs in the batch.
+ */
+public class AB1_SparseBatch
+{
+   /*
+    * nInputs: number of values in each dense case.
+    * rowStart: position in index and value of each case's first non-zero input, followed by the total
+    *    number of non-zero inputs.
+    * index: position of each non-zero input in its dense case.
+    * value: value of each non-zero input.
+    */
+   final int nInputs;
+   final int[] rowStart, index;
+   final double[] value;
+
+   /*
+    * Wraps CSR arrays without copying them.
+    *
+    * @param nInputs: number of values in each dense case
+    * @param rowStart: position of each case's first non-zero input, plus one final entry
+    * @param index: position of each non-zero input in its dense case, increasing within a case
+    * @param value: value of each non-zero input
+    */
+   public AB1_SparseBatch(int nInputs, int[] rowStart, int[] index, double[] value)
+   {
+      this.nInputs = nInputs;
+      this.rowStart = rowStart;
+      this.index = index;
+      this.value = value;
+   }
+
+   /*
+    * Builds a batch from dense cases, keeping only their non-zero inputs.
+    *
+    * @param inputs: dense cases, one per row
+    *
+    * @return the sparse batch
+    */
+   public static AB1_SparseBatch fromDense(double[][] inputs)
+   {
+      int nonZeros = 0, pos = 0;
+      int[] rowStart = new int[inputs.length + 1];
+
+      for (double[] input : inputs)
+      {
+         for (double x : input)
+         {
+            if (x != 0.0)
+            {
+               nonZeros++;
+            }
+         }
+      } // for (double[] input : inputs)
+
+      int[] index = new int[nonZeros];
+      double[] value = new double[nonZeros];
+
+      for (int c = 0; c < inputs.length; c++)
+      {
+         rowStart[c] = pos;
+
+         for (int k = 0; k < inputs[c].length; k++)
+         {
+            if (inputs[c][k] != 0.0)
+            {
+               index[pos] = k;
+               value[pos] = inputs[c][k];
+               pos++;
+            }
+         }
+      } // for (int c = 0; c < inputs.length; c++)
+
+      rowStart[inputs.length] = pos;
+
+      return new AB1_SparseBatch(inputs[0].length, rowStart, index, value);
+   } // public static AB1_SparseBatch fromDense(double[][] inputs)
+
+   /*
+    * @return number of cases in the batch
+    */
+   public int nCases()
+   {
+      return rowStart.length - 1;
+   }
+
+   /*
+    * @return number of non-zero inputs in the batch
+    */
+   public int nonZeros()
+   {
+      return rowStart[rowStart.length - 1];
+   }
+
+} // public class AB1_SparseBatch
@@ -0,0 +1,205 @@
+/*
+ * This file implements an immutable, magnitude-pruned A-B-1 model for inference. Every weight between the
+ * input and hidden activations whose magnitude is at or below a threshold is dropped, and the ones that are
+ * left are stored in compressed sparse row (CSR) form: the weights of hidden node j are values[rowStart[j]]
+ * through values[rowStart[j + 1] - 1], and the input each of them multiplies is at the same index in cols.
+ * A forward pass only multiplies the weights that are left, so its cost and the model's size both shrink
+ * with the fraction of weights pruned. The weights between the hidden and output activations are few and
+ * are kept dense.
+ *
+ * The threshold can be given directly, or derived from a target sparsity with thresholdForSparsity, which
+ * picks the magnitude below which that fraction of the weights falls. The model activates with the same
+ * sigmoid as the network it was pruned from, AB1_Net.sigmoid or, if useTableSigmoid is set, tableSigmoid.
+ *
+ * Each hidden node's output is added to the output's theta as soon as it is computed, so a forward pass
+ * needs no scratch space and, unlike AB1_Model, no Context: any number of threads can call run at once.
+ * The sums are accumulated in the same order as the scalar loop in AB1_Net.dot, so a model pruned with a
+ * threshold below every weight's magnitude, with the exact sigmoid, predicts exactly what AB1_Model does
+ * with the Vector API kernel turned off. Reads of the input go through cols, so the loop isn't vectorized.
+ *
+ * Methods:
+ *    AB1_SparseModel: prunes a configuration's weights at a threshold and packs the rest into CSR form.
+ *    thresholdForSparsity: magnitude threshold that prunes a given fraction of a layer's weights.
+ *    run: runs the model on one input.
+ *    activate: applies the model's sigmoid.
+ *    nonZeros: number of weights between the input and hidden activations left after pruning.
+ *    sparsity: fraction of the weights between the input and hidden activations that were pruned.
+ *    threshold: the magnitude threshold the model was pruned at.
+ *    weightBytes: size in bytes of the model's weights and indices.
+ */
+import java.util.Arrays;
+
+public final class AB1_SparseModel
+{
+   /*
+    * numActs: configuration number of activations in each layer.
+    * threshold: weights with a magnitude at or below this were pruned.
+    * rowStart: index in cols and values of the first weight of each hidden node, plus one entry holding
+    *    the number of weights left, so that hidden node j's weights end at rowStart[j + 1].
+    * cols: input index of each weight left.
+    * values: value of each weight left.
+    * weights2: weights between hidden and output activations, dense and laid out as in AB1_Net.
+    * useTableSigmoid: if true, activations are computed with AB1_Net.tableSigmoid instead of sigmoid.
+    */
+   private final int[] numActs;
+   private final double threshold;
+   private final boolean useTableSigmoid;
+   private final int[] rowStart, cols;
+   private final double[] values, weights2;
+
+   /*
+    * Creates a model from a network configuration and weights, dropping every weight in weights1 whose
+    *    magnitude is at or below threshold. The arrays are copied, so later changes to the source network
+    *    do not affect the model.
+    *
+    * @param numActs: configuration number of activations in each layer
+    * @param weights1: flat weights between input and hidden activations
+    * @param weights2: flat weights between hidden and output activations
+    * @param threshold: largest magnitude to prune. 0.0 drops only weights that are exactly zero.
+    * @param useTableSigmoid: whether the model activates with AB1_Net.tableSigmoid instead of sigmoid
+    */
+   public AB1_SparseModel(int[] numActs, double[] weights1, double[] weights2, double threshold,
+         boolean useTableSigmoid)
+   {
+      int nnz = 0, row;
+
+      this.numActs = numActs.clone();
+      this.threshold = threshold;
+      this.useTableSigmoid = useTableSigmoid;
+      this.weights2 = weights2.clone();
+
+      for (int i = 0; i < numActs[0] * numActs[1]; i++)
+      {
+         if (Math.abs(weights1[i]) > threshold)
+         {
+            nnz++;
+         }
+      }
+
+      rowStart = new int[numActs[1] + 1];
+      cols = new int[nnz];
+      values = new double[nnz];
+      nnz = 0;
+
+      for (int j = 0; j < numActs[1]; j++)
+      {
+         rowStart[j] = nnz;
+         row = j * numActs[0];
+
+         for (int k = 0; k < numActs[0]; k++)
+         {
+            if (Math.abs(weights1[row + k]) > threshold)
+            {
+               cols[nnz] = k;
+               values[nnz] = weights1[row + k];
+               nnz++;
+            }
+         }
+      } // for (int j = 0; j < numActs[1]; j++)
+
+      rowStart[numActs[1]] = nnz;
+   } // public AB1_SparseModel(int[] numActs, double[] weights1, double[] weights2, double threshold, ...)
+
+   /*
+    * Finds the threshold that prunes the given fraction of weights: the magnitude of the weight that ranks
+    *    at that fraction when the weights are sorted by magnitude. Weights with the same magnitude as that
+    *    one are pruned along with it, so ties can prune slightly more than the target.
+    *
+    * @param weights: the weights to prune
+    * @param sparsity: fraction of the weights to prune, from 0.0 to 1.0
+    *
+    * @return the threshold to pass to the constructor, 0.0 if sparsity rounds to no weights at all
+    */
+   public static double thresholdForSparsity(double[] weights, double sparsity)
+   {
+      int pruned = (int) (sparsity * weights.length);
+      double[] magnitudes = new double[weights.length];
+
+      if (pruned <= 0)
+      {
+         return 0.0;
+      }
+
+      for (int i = 0; i < weights.length; i++)
+      {
+         magnitudes[i] = Math.abs(weights[i]);
+      }
+
+      Arrays.sort(magnitudes);
+      return magnitudes[Math.min(pruned, weights.length) - 1];
+   } // public static double thresholdForSparsity(double[] weights, double sparsity)
+
+   /*
+    * Runs the model on input. Nothing is written but locals, so concurrent calls are safe.
+    *
+    * @param input: data for model to make predictions on
+    *
+    * @return prediction
+    */
+   public double run(double[] input)
+   {
+      double out = 0.0, theta;
+      int end;
+
+      // for each node in the hidden layer
+      for (int j = 0; j < numActs[1]; j++)
+      {
+         theta = 0.0;
+         end = rowStart[j + 1];
+
+         for (int p = rowStart[j]; p < end; p++)
+         {
+            theta += input[cols[p]] * values[p];
+         }
+
+         out += activate(theta) * weights2[j];
+      } // for (int j = 0; j < numActs[1]; j++)
+
+      return activate(out);
+   } // public double run(double[] input)
+
+   /*
+    * Applies the sigmoid the model was created with.
+    *
+    * @param input: theta value of an activation
+    *
+    * @return the activation
+    */
+   private double activate(double input)
+   {
+      return useTableSigmoid ? AB1_Net.tableSigmoid(input) : AB1_Net.sigmoid(input);
+   }
+
+   /*
+    * @return number of weights between the input and hidden activations left after pruning
+    */
+   public int nonZeros()
+   {
+      return values.length;
+   }
+
+   /*
+    * @return fraction of the weights between the input and hidden activations that were pruned
+    */
+   public double sparsity()
+   {
+      return 1.0 - (double) values.length / (numActs[0] * numActs[1]);
+   }
+
+   /*
+    * @return the magnitude threshold the model was pruned at
+    */
+   public double threshold()
+   {
+      return threshold;
+   }
+
+   /*
+    * @return size in bytes of the model's weights, including the column indices and row starts
+    */
+   public long weightBytes()
+   {
+      return 12L * values.length + 4L * rowStart.length + 8L * weights2.length;
+   }
+
+} // public final class AB1_SparseModel
@@ -0,0 +1,254 @@
+/*
+ * This file implements a hyperparameter sweep for AB1_Net: many independent networks, each with its own
+ * learning rate, weight randomization range, hidden layer size and seed, trained at the same time on a
+ * fixed-size thread pool, with the results ranked from best to worst.
+ *
+ * Every network starts from the defaults in AB1_Net.parametrize_train and draws its starting weights
+ * from its own SplittableRandom seeded with the configuration's seed, so the networks share no state
+ * and any result can be reproduced exactly by training the same configuration again.
+ *
+ * Networks that reach the error threshold rank ahead of those that don't, fastest first; the rest are
+ * ranked by their final error.
+ *
+ * Methods:
+ *    main: sweeps a grid of configurations and prints the ranked results.
+ *    AB1_Sweep: creates the thread pool.
+ *    run: trains a network for every configuration and returns the results, best first.
+ *    trainOne: builds and trains the network for one configuration.
+ *    grid: builds every combination of the given hyperparameter values.
+ *    shutdown: stops the pool's threads.
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class AB1_Sweep
+{
+   /*
+    * One point of the sweep.
+    * lambda: learning rate.
+    * minRand, maxRand: range the starting weights are drawn from.
+    * hidden: number of hidden activations.
+    * seed: seed of the network's random number generator.
+    */
+   public static class Config
+   {
+      final double lambda, minRand, maxRand;
+      final int hidden;
+      final long seed;
+
+      public Config(double lambda, double minRand, double maxRand, int hidden, long seed)
+      {
+         this.lambda = lambda;
+         this.minRand = minRand;
+         this.maxRand = maxRand;
+         this.hidden = hidden;
+         this.seed = seed;
+      }
+
+      public String toString()
+      {
+         return "lambda " + lambda + ", range (" + minRand + ", " + maxRand + "), hidden " + hidden +
+               ", seed " + seed;
+      }
+   } // public static class Config
+
+   /*
+    * Outcome of training one configuration.
+    * config: the configuration trained.
+    * converged: whether the network reached the error threshold within the maximum iterations.
+    * iterations: number of iterations trained.
+    * avgErr: average error after the last iteration.
+    * millis: wall-clock training time.
+    */
+   public static class Result
+   {
+      final Config config;
+      final boolean converged;
+      final int iterations;
+      final double avgErr;
+      final long millis;
+
+      Result(Config config, boolean converged, int iterations, double avgErr, long millis)
+      {
+         this.config = config;
+         this.converged = converged;
+         this.iterations = iterations;
+         this.avgErr = avgErr;
+         this.millis = millis;
+      }
+
+      public String toString()
+      {
+         return (converged ? "converged, " : "") + "avgErr " + avgErr + " after " + iterations +
+               " iterations (" + millis + " ms): " + config;
+      }
+   } // public static class Result
+
+   /*
+    * RANKING: ranks converged results ahead of the rest, converged results by the number of iterations
+    *    they took and the rest by their final error.
+    *
+    * pool: the threads networks are trained on.
+    * maxIter: maximum number of iterations each network is trained for.
+    */
+   static final Comparator<Result> RANKING = (x, y) ->
+   {
+      if (x.converged != y.converged)
+      {
+         return x.converged ? -1 : 1;
+      }
+
+      return x.converged ? Integer.compare(x.iterations, y.iterations) : Double.compare(x.avgErr, y.avgErr);
+   };
+
+   final ExecutorService pool;
+   final int maxIter;
+
+   /*
+    * Sweeps every combination of a few learning rates, randomization ranges and hidden sizes, with three
+    *    seeds each, over every available processor, and prints the results best first.
+    *
+    * @param String[] args -- command line arguments
+    */
+   public static void main(String[] args) throws InterruptedException, ExecutionException
+   {
+      AB1_Sweep sweep = new AB1_Sweep(Runtime.getRuntime().availableProcessors(), 20000);
+      List<Config> configs = grid(new double[]{0.1, 0.3, 1.0}, new double[]{0.5, 1.5}, new int[]{2, 4, 8},
+            3, 1L);
+      List<Result> results = sweep.run(configs);
+
+      sweep.shutdown();
+
+      System.out.println("Sweep of " + configs.size() + " networks, best first:");
+      for (int rank = 0; rank < results.size(); rank++)
+      {
+         System.out.println((rank + 1) + ". " + results.get(rank));
+      }
+
+   } // public static void main(String[] args)
+
+   /*
+    * Creates the thread pool.
+    *
+    * @param nThreads: number of networks trained at the same time
+    * @param maxIter: maximum number of iterations each network is trained for
+    */
+   public AB1_Sweep(int nThreads, int maxIter)
+   {
+      this.pool = Executors.newFixedThreadPool(nThreads);
+      this.maxIter = maxIter;
+   }
+
+   /*
+    * Trains a network for every configuration, at most nThreads at a time, and waits for all of them.
+    *
+    * @param configs: configurations to train
+    *
+    * @return one result per configuration, ranked by RANKING
+    */
+   public List<Result> run(List<Config> configs) throws InterruptedException, ExecutionException
+   {
+      List<Callable<Result>> tasks = new ArrayList<Callable<Result>>(configs.size());
+      List<Result> results = new ArrayList<Result>(configs.size());
+
+      for (Config config : configs)
+      {
+         tasks.add(() -> trainOne(config));
+      }
+
+      for (Future<Result> future : pool.invokeAll(tasks))
+      {
+         results.add(future.get());
+      }
+
+      Collections.sort(results, RANKING);
+      return results;
+   } // public List<Result> run(List<Config> configs)
+
+   /*
+    * Builds a network for one configuration on top of the default training parameters and trains it on
+    *    the calling thread. Telemetry is off, since every network of the sweep would report under the
+    *    same name.
+    *
+    * @param config: configuration to train
+    *
+    * @return the configuration's result
+    */
+   Result trainOne(Config config)
+   {
+      AB1_Net net = new AB1_Net();
+      long start;
+
+      net.parametrize();
+      net.training = true;
+      net.parametrize_train();
+
+      net.telemetry = null;
+      net.numActs = new int[]{net.nInEachInput, config.hidden, 1};
+      net.lambda = config.lambda;
+      net.optimizer = new AB1_Optimizer.Sgd(config.lambda);
+      net.minRand = config.minRand;
+      net.maxRand = config.maxRand;
+      net.seed = config.seed;
+      net.maxIter = maxIter;
+
+      net.allocate_train();
+      net.populateRandom();
+
+      start = System.nanoTime();
+      net.train(net.inputs, net.outputs);
+
+      return new Result(config, net.avgErr <= net.maxError, net.iteration, net.avgErr,
+            (System.nanoTime() - start) / 1000000);
+   } // Result trainOne(Config config)
+
+   /*
+    * Builds every combination of the given values. Each randomization range r is used as (-r, r), and
+    *    every combination is trained with nSeeds consecutive seeds starting at firstSeed.
+    *
+    * @param lambdas: learning rates
+    * @param ranges: half-widths of the randomization ranges
+    * @param hiddens: hidden layer sizes
+    * @param nSeeds: number of seeds for each combination
+    * @param firstSeed: first seed
+    *
+    * @return the configurations
+    */
+   public static List<Config> grid(double[] lambdas, double[] ranges, int[] hiddens, int nSeeds,
+         long firstSeed)
+   {
+      List<Config> configs = new ArrayList<Config>();
+
+      for (double lambda : lambdas)
+      {
+         for (double range : ranges)
+         {
+            for (int hidden : hiddens)
+            {
+               for (int s = 0; s < nSeeds; s++)
+               {
+                  configs.add(new Config(lambda, -range, range, hidden, firstSeed + s));
+               }
+            }
+         }
+      } // for (double lambda : lambdas)
+
+      return configs;
+   } // public static List<Config> grid(double[] lambdas, double[] ranges, int[] hiddens, int nSeeds, ...)
+
+   /*
+    * Stops the pool's threads once the sweep is done.
+    */
+   public void shutdown()
+   {
+      pool.shutdown();
+   }
+
+} // public class AB1_Sweep
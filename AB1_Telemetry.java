@@ -0,0 +1,199 @@
+/*
+ * This file implements training telemetry for AB1_Net: an in-process metrics registry that monitoring
+ * code can poll during a run, and a custom JFR event committed once per epoch.
+ *
+ * A trainer reports to the AB1_Telemetry object in its telemetry field. When that field is null (the
+ * default) the training loop skips every timer and report, so telemetry that is off costs one null check
+ * per batch. When it is on, the loop reads System.nanoTime three times per batch (at the start of the
+ * batch, at the end of the forward phase and at the end of the backward phase), and everything else
+ * happens once per epoch. The AB1.Epoch JFR event is only filled in when a recording has it enabled,
+ * e.g. with java -XX:StartFlightRecording ...
+ *
+ * The forward phase covers running each case of a batch forward and computing its psi values, and the
+ * backward phase covers summing the batch's derivatives and applying them to the weights, which AB1_Net's
+ * trainers do in one fused pass.
+ *
+ * Methods:
+ *    register: creates telemetry under a name in the registry.
+ *    lookup: finds registered telemetry by name.
+ *    startEpoch: marks the start of an epoch.
+ *    addPhases: adds the time one batch spent in each phase.
+ *    endEpoch: publishes the epoch's metrics and commits its JFR event.
+ *    toString: formats the latest metrics on one line.
+ */
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+public class AB1_Telemetry
+{
+   /*
+    * REGISTRY: every registered telemetry object, by name.
+    */
+   static final Map<String, AB1_Telemetry> REGISTRY = new ConcurrentHashMap<String, AB1_Telemetry>();
+
+   /*
+    * JFR event committed at the end of every epoch. The event's duration is the epoch's wall-clock time.
+    */
+   @Name("AB1.Epoch")
+   @Label("AB1 Training Epoch")
+   @Category({"AB1_Net", "Training"})
+   @Description("One pass of AB1_Net training over every case")
+   @StackTrace(false)
+   static class EpochEvent extends Event
+   {
+      @Label("Network")
+      String network;
+
+      @Label("Iteration")
+      int iteration;
+
+      @Label("Average Error")
+      double avgErr;
+
+      @Label("Cases")
+      long cases;
+
+      @Label("Cases per Second")
+      double casesPerSecond;
+
+      @Label("Forward Time")
+      @Timespan(Timespan.NANOSECONDS)
+      long forwardTime;
+
+      @Label("Backward Time")
+      @Timespan(Timespan.NANOSECONDS)
+      long backwardTime;
+   } // static class EpochEvent extends Event
+
+   /*
+    * Published metrics, written by the training thread once per epoch and readable from any thread.
+    * name: name this telemetry is registered under.
+    * iteration: number of epochs finished.
+    * avgErr: average error of the latest epoch.
+    * casesPerSecond: training throughput of the latest epoch.
+    * totalCases: cases trained on over all epochs.
+    * forwardNanos, backwardNanos: time spent in each phase over all epochs.
+    *
+    * State of the current epoch, used only by the training thread.
+    * epochStart: System.nanoTime() when the epoch started.
+    * epochForward, epochBackward: time spent in each phase so far this epoch.
+    * event: the epoch's JFR event.
+    */
+   final String name;
+   volatile int iteration;
+   volatile double avgErr, casesPerSecond;
+   volatile long totalCases, forwardNanos, backwardNanos;
+
+   long epochStart, epochForward, epochBackward;
+   EpochEvent event;
+
+   /*
+    * Creates telemetry that isn't registered.
+    *
+    * @param name: name reported in the JFR events
+    */
+   public AB1_Telemetry(String name)
+   {
+      this.name = name;
+   }
+
+   /*
+    * Creates telemetry and registers it under name, replacing anything registered there before.
+    *
+    * @param name: name to register the telemetry under
+    *
+    * @return the new telemetry
+    */
+   public static AB1_Telemetry register(String name)
+   {
+      AB1_Telemetry telemetry = new AB1_Telemetry(name);
+      REGISTRY.put(name, telemetry);
+      return telemetry;
+   }
+
+   /*
+    * @param name: name the telemetry was registered under
+    *
+    * @return the registered telemetry, or null if there is none
+    */
+   public static AB1_Telemetry lookup(String name)
+   {
+      return REGISTRY.get(name);
+   }
+
+   /*
+    * Marks the start of an epoch.
+    */
+   public void startEpoch()
+   {
+      epochForward = 0;
+      epochBackward = 0;
+
+      event = new EpochEvent();
+      event.begin();
+      epochStart = System.nanoTime();
+   } // public void startEpoch()
+
+   /*
+    * Adds the time one batch spent in each phase to the current epoch.
+    *
+    * @param forward: nanoseconds spent in the forward phase
+    * @param backward: nanoseconds spent in the backward phase
+    */
+   public void addPhases(long forward, long backward)
+   {
+      epochForward += forward;
+      epochBackward += backward;
+   }
+
+   /*
+    * Publishes the metrics of the epoch that just finished and commits its JFR event.
+    *
+    * @param iteration: number of epochs finished
+    * @param avgErr: average error of the epoch
+    * @param cases: number of cases in the epoch
+    */
+   public void endEpoch(int iteration, double avgErr, long cases)
+   {
+      long elapsed = Math.max(1, System.nanoTime() - epochStart);
+
+      this.casesPerSecond = cases * 1E9 / elapsed;
+      this.avgErr = avgErr;
+      this.totalCases += cases;
+      this.forwardNanos += epochForward;
+      this.backwardNanos += epochBackward;
+      this.iteration = iteration;
+
+      event.end();
+      if (event.shouldCommit())
+      {
+         event.network = name;
+         event.iteration = iteration;
+         event.avgErr = avgErr;
+         event.cases = cases;
+         event.casesPerSecond = casesPerSecond;
+         event.forwardTime = epochForward;
+         event.backwardTime = epochBackward;
+         event.commit();
+      }
+   } // public void endEpoch(int iteration, double avgErr, long cases)
+
+   /*
+    * @return the latest metrics on one line
+    */
+   public String toString()
+   {
+      return name + ": iteration " + iteration + ", avgErr " + avgErr + ", " + (long) casesPerSecond +
+            " cases/s, forward " + forwardNanos / 1000000 + " ms, backward " + backwardNanos / 1000000 +
+            " ms";
+   }
+
+} // public class AB1_Telemetry
@@ -0,0 +1,264 @@
+/*
+ * This file implements background validation for AB1_Net: a held-out set of cases is scored against
+ * periodic snapshots of the weights on a separate thread, so watching for overfitting costs the training
+ * loop only the copy of the weights, never a pass over the validation cases.
+ *
+ * A snapshot is taken between iterations, on the training thread, by copying the weights into reusable
+ * buffers. The validator thread then runs every validation case through the snapshot, computes the
+ * average error the same way train computes avgErr, prints it, and keeps a copy of the best weights seen.
+ * If the validator is still scoring the previous snapshot when the next one is due, that snapshot is
+ * skipped rather than blocking training.
+ *
+ * Once the validation error hasn't improved for patience validations in a row, the validator sets stop.
+ * The training loops check it along with maxIter and maxError and end after the current iteration, and
+ * finish then restores the weights that scored best, since those generalized best. AB1_OffHeapNet, whose
+ * weights aren't in the network's arrays, copies its snapshots in and the best weights out itself, with
+ * claim, submit, awaitScoring and restored.
+ *
+ * Methods:
+ *    AB1_Validator: sizes the snapshot buffers for a network and starts the validator thread.
+ *    offer: takes a snapshot of a network and queues it for scoring, unless scoring is in progress.
+ *    claim: reserves the snapshot buffers for a new snapshot, unless scoring is in progress.
+ *    submit: queues the snapshot in the buffers for scoring.
+ *    score: scores the snapshot on the validation cases, on the validator thread.
+ *    awaitScoring: waits until the validator thread has finished scoring.
+ *    finish: scores a final snapshot, stops the validator thread and restores the best weights if
+ *       training stopped early.
+ *    restored: reports that the best weights were restored.
+ */
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AB1_Validator
+{
+   /*
+    * inputs, outputs: the validation cases and their expected outputs.
+    * patience: number of validations in a row without improvement after which training should stop.
+    * net: the network being validated. score reads only its configuration and activation settings.
+    *
+    * weights1, weights2: the snapshot being scored, reused for every snapshot.
+    * iteration: number of iterations finished when the snapshot was taken.
+    * h: hidden activations of the validation case being scored.
+    * best1, best2: the weights of the snapshot with the lowest validation error.
+    *
+    * busy: true from the moment a snapshot is taken until the validator has finished scoring it.
+    * scorer: the single background thread that scores snapshots.
+    * pending: the latest snapshot handed to scorer, or null if there has been none. Only used on the
+    *    training thread.
+    * error: validation error of the latest snapshot scored.
+    * bestError, bestIteration: lowest validation error so far and the iteration it was reached at.
+    * sinceBest: number of validations in a row that didn't improve on bestError.
+    * validated, skipped: number of snapshots scored and skipped.
+    * stop: set once training should stop early.
+    */
+   final double[][] inputs;
+   final double[] outputs;
+   final int patience;
+   final AB1_Net net;
+
+   final double[] weights1, weights2, h, best1, best2;
+   int iteration;
+
+   final AtomicBoolean busy = new AtomicBoolean();
+   final ExecutorService scorer;
+   Future<?> pending;
+   volatile double error, bestError = Double.POSITIVE_INFINITY;
+   volatile int bestIteration, sinceBest, validated, skipped;
+   volatile boolean stop;
+
+   /*
+    * Sizes the snapshot buffers for net, which must already be allocated, and starts the validator
+    *    thread.
+    *
+    * @param net: network that will be validated
+    * @param inputs: validation cases, held out of training
+    * @param outputs: expected outputs of the validation cases
+    * @param patience: number of validations in a row without improvement before training should stop
+    */
+   public AB1_Validator(AB1_Net net, double[][] inputs, double[] outputs, int patience)
+   {
+      this.net = net;
+      this.inputs = inputs;
+      this.outputs = outputs;
+      this.patience = patience;
+
+      weights1 = new double[net.weights1.length];
+      weights2 = new double[net.weights2.length];
+      best1 = new double[net.weights1.length];
+      best2 = new double[net.weights2.length];
+      h = new double[net.numActs[1]];
+
+      scorer = Executors.newSingleThreadExecutor(task ->
+      {
+         Thread thread = new Thread(task, "AB1_Validator");
+         thread.setDaemon(true);
+         return thread;
+      });
+   } // public AB1_Validator(AB1_Net net, double[][] inputs, double[] outputs, int patience)
+
+   /*
+    * Takes a snapshot of net's weights and hands it to the validator thread. Must be called on the
+    *    training thread between iterations, while the weights aren't changing.
+    *
+    * @param net: network to snapshot
+    *
+    * @return true if the snapshot was queued, false if it was skipped because scoring is in progress
+    */
+   public boolean offer(AB1_Net net)
+   {
+      if (!claim())
+      {
+         return false;
+      }
+
+      System.arraycopy(net.weights1, 0, weights1, 0, weights1.length);
+      System.arraycopy(net.weights2, 0, weights2, 0, weights2.length);
+      submit(net.iteration);
+      return true;
+   } // public boolean offer(AB1_Net net)
+
+   /*
+    * Reserves weights1 and weights2 for a new snapshot. If this returns true, the caller must fill them
+    *    and call submit.
+    *
+    * @return true if the buffers are free, false if the snapshot is skipped because scoring is in progress
+    */
+   boolean claim()
+   {
+      if (!busy.compareAndSet(false, true))
+      {
+         skipped++;
+         return false;
+      }
+
+      return true;
+   } // boolean claim()
+
+   /*
+    * Hands the snapshot in weights1 and weights2 to the validator thread.
+    *
+    * @param iteration: number of iterations finished when the snapshot was taken
+    */
+   void submit(int iteration)
+   {
+      this.iteration = iteration;
+      pending = scorer.submit(this::score);
+   }
+
+   /*
+    * Runs every validation case through the snapshot and records the average error. Keeps the snapshot
+    *    as the best weights if it improves on bestError, and sets stop once patience validations in a
+    *    row haven't. Runs on the validator thread.
+    */
+   void score()
+   {
+      int[] numActs = net.numActs;
+      double sum = 0.0, omega;
+
+      try
+      {
+         for (int case_ = 0; case_ < inputs.length; case_++)
+         {
+            for (int j = 0; j < numActs[1]; j++)
+            {
+               h[j] = net.activate(AB1_Net.dot(inputs[case_], weights1, j * numActs[0], numActs[0],
+                     net.useVector));
+            }
+
+            omega = outputs[case_] - net.activate(AB1_Net.dot(h, weights2, 0, numActs[1], net.useVector));
+            sum += (omega * omega) / 2.0;
+         } // for (int case_ = 0; case_ < inputs.length; case_++)
+
+         error = sum / inputs.length;
+         validated++;
+
+         if (error < bestError)
+         {
+            bestError = error;
+            bestIteration = iteration;
+            sinceBest = 0;
+            System.arraycopy(weights1, 0, best1, 0, best1.length);
+            System.arraycopy(weights2, 0, best2, 0, best2.length);
+         }
+         else if (++sinceBest >= patience)
+         {
+            stop = true;
+         }
+
+         System.out.println("Validation error at iteration " + iteration + ": " + error + " (best " +
+               bestError + " at iteration " + bestIteration + ")");
+      }
+      finally
+      {
+         busy.set(false);
+      }
+   } // void score()
+
+   /*
+    * Waits for any scoring in progress, scores a final snapshot of net and stops the validator thread.
+    *    If training stopped early, net's weights are replaced with the best ones scored.
+    *
+    * @param net: network to snapshot
+    */
+   public void finish(AB1_Net net)
+   {
+      if (!awaitScoring())
+      {
+         return;
+      }
+
+      if (!stop && offer(net) && !awaitScoring())
+      {
+         return;
+      }
+      scorer.shutdown();
+
+      if (stop)
+      {
+         System.arraycopy(best1, 0, net.weights1, 0, best1.length);
+         System.arraycopy(best2, 0, net.weights2, 0, best2.length);
+         restored();
+      }
+   } // public void finish(AB1_Net net)
+
+   /*
+    * Waits until the validator thread has finished scoring the latest snapshot, if any. If the calling
+    *    thread is interrupted, stops the validator thread instead.
+    *
+    * @return true if scoring finished, false if the wait was interrupted
+    */
+   boolean awaitScoring()
+   {
+      try
+      {
+         if (pending != null)
+         {
+            pending.get();
+         }
+         return true;
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         scorer.shutdownNow();
+         return false;
+      }
+      catch (ExecutionException e)
+      {
+         throw new RuntimeException(e.getCause());
+      }
+   } // boolean awaitScoring()
+
+   /*
+    * Reports that training stopped early and the best weights were restored.
+    */
+   void restored()
+   {
+      System.out.println("Stopped early; restored the weights from iteration " + bestIteration +
+            " with validation error " + bestError);
+   }
+
+} // public class AB1_Validator
@@ -0,0 +1,172 @@
+/*
+ * This file implements the theta accumulation kernels for AB1_Net and its float32 and int8 models
+ * (AB1_FloatModel and AB1_Int8Model) using the jdk.incubator.vector API.
+ * It is kept separate from AB1_Net so that the network still compiles and runs without the incubator
+ * module; each class using a kernel looks it up at startup and falls back to its own scalar loop if it can't
+ * be loaded.
+ *
+ * Compile and run with:
+ *    javac --add-modules jdk.incubator.vector AB1_VectorKernel.java
+ *    java --add-modules jdk.incubator.vector AB1_Net
+ *
+ * Methods:
+ *    dot: dot product of an activation array with one contiguous row of a flat weight array.
+ *    dotRange: dot, for a range of the activations starting anywhere in the array.
+ *    dotFloat: dot, for float activations and weights.
+ *    dotInt8: dot, for float activations and int8 weights, without the weights' scale applied.
+ */
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+public final class AB1_VectorKernel
+{
+   /*
+    * SPECIES: the widest double vector shape supported by the hardware.
+    * FLOAT_SPECIES: the widest float vector shape supported by the hardware, twice as many lanes as SPECIES.
+    * INT8_BYTES: byte shape for loading int8 weights, with as many lanes as FLOAT_SPECIES. A byte shape
+    *    can't be narrower than 64 bits, so when FLOAT_SPECIES has fewer than 8 lanes it holds several
+    *    float vectors' worth of weights, which are converted one part at a time.
+    * INT8_PARTS: number of FLOAT_SPECIES vectors in one INT8_BYTES vector.
+    */
+   static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+   static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+   static final VectorSpecies<Byte> INT8_BYTES =
+         VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(FLOAT_SPECIES.length() * 8, 64)));
+   static final int INT8_PARTS = INT8_BYTES.length() / FLOAT_SPECIES.length();
+
+   private AB1_VectorKernel()
+   {
+   }
+
+   /*
+    * Calculates the dot product of act with the n weights of w starting at offset. Full vectors are
+    *    accumulated lane-wise with fused multiply-adds and reduced once at the end; the remaining
+    *    n % SPECIES.length() elements are handled with a scalar loop.
+    *
+    * @param act: activations of the previous layer
+    * @param w: flat weight array
+    * @param offset: index in w of the first weight in the row
+    * @param n: number of activations/weights in the row
+    *
+    * @return the accumulated theta value
+    */
+   public static double dot(double[] act, double[] w, int offset, int n)
+   {
+      return dotRange(act, 0, w, offset, n);
+   }
+
+   /*
+    * Calculates the dot product of the n activations of act starting at actOffset with the n weights of
+    *    w starting at offset, the same way as dot. Used by AB1_Net.runBatch, whose tiles cover a range
+    *    of the inputs at a time.
+    *
+    * @param act: activations of the previous layer
+    * @param actOffset: index in act of the first activation
+    * @param w: flat weight array
+    * @param offset: index in w of the first weight
+    * @param n: number of activations/weights in the range
+    *
+    * @return the accumulated theta value of the range
+    */
+   public static double dotRange(double[] act, int actOffset, double[] w, int offset, int n)
+   {
+      DoubleVector acc = DoubleVector.zero(SPECIES);
+      int upper = SPECIES.loopBound(n);
+      int k = 0;
+
+      for (; k < upper; k += SPECIES.length())
+      {
+         DoubleVector va = DoubleVector.fromArray(SPECIES, act, actOffset + k);
+         DoubleVector vw = DoubleVector.fromArray(SPECIES, w, offset + k);
+         acc = va.fma(vw, acc);
+      }
+
+      double sum = acc.reduceLanes(VectorOperators.ADD);
+
+      for (; k < n; k++) // tail that doesn't fill a full vector
+      {
+         sum += act[actOffset + k] * w[offset + k];
+      }
+
+      return sum;
+   } // public static double dotRange(double[] act, int actOffset, double[] w, int offset, int n)
+
+   /*
+    * Calculates the dot product of act with the n weights of w starting at offset, in single precision.
+    *
+    * @param act: activations of the previous layer
+    * @param w: flat weight array
+    * @param offset: index in w of the first weight in the row
+    * @param n: number of activations/weights in the row
+    *
+    * @return the accumulated theta value
+    */
+   public static float dotFloat(float[] act, float[] w, int offset, int n)
+   {
+      FloatVector acc = FloatVector.zero(FLOAT_SPECIES);
+      int upper = FLOAT_SPECIES.loopBound(n);
+      int k = 0;
+
+      for (; k < upper; k += FLOAT_SPECIES.length())
+      {
+         FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, act, k);
+         FloatVector vw = FloatVector.fromArray(FLOAT_SPECIES, w, offset + k);
+         acc = va.fma(vw, acc);
+      }
+
+      float sum = acc.reduceLanes(VectorOperators.ADD);
+
+      for (; k < n; k++) // tail that doesn't fill a full vector
+      {
+         sum += act[k] * w[offset + k];
+      }
+
+      return sum;
+   } // public static float dotFloat(float[] act, float[] w, int offset, int n)
+
+   /*
+    * Calculates the dot product of act with the n int8 weights of w starting at offset. Each vector of
+    *    weights is widened to floats in registers, INT8_PARTS vectors of floats at a time, so the weights
+    *    are read from memory as single bytes. The result is in units of the weights' scale, which the
+    *    caller multiplies in once per row.
+    *
+    * @param act: activations of the previous layer
+    * @param w: flat quantized weight array
+    * @param offset: index in w of the first weight in the row
+    * @param n: number of activations/weights in the row
+    *
+    * @return the accumulated theta value, divided by the weights' scale
+    */
+   public static float dotInt8(float[] act, byte[] w, int offset, int n)
+   {
+      FloatVector acc = FloatVector.zero(FLOAT_SPECIES);
+      int upper = INT8_BYTES.loopBound(n);
+      int k = 0;
+
+      for (; k < upper; k += INT8_BYTES.length())
+      {
+         ByteVector bytes = ByteVector.fromArray(INT8_BYTES, w, offset + k);
+
+         for (int part = 0; part < INT8_PARTS; part++)
+         {
+            FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, act, k + part * FLOAT_SPECIES.length());
+            FloatVector vw = (FloatVector) bytes.convertShape(VectorOperators.B2F, FLOAT_SPECIES, part);
+            acc = va.fma(vw, acc);
+         }
+      }
+
+      float sum = acc.reduceLanes(VectorOperators.ADD);
+
+      for (; k < n; k++) // tail that doesn't fill a full vector
+      {
+         sum += act[k] * w[offset + k];
+      }
+
+      return sum;
+   } // public static float dotInt8(float[] act, byte[] w, int offset, int n)
+
+} // public final class AB1_VectorKernel
@@ -0,0 +1,406 @@
+/*
+ * This file implements a fully connected feed-forward network with any number of layers and any number of
+ * nodes in each layer (for example 784-256-128-10), trained with gradient descent. It generalizes AB1_Net,
+ * which is hardwired to three layers and a single output.
+ *
+ * The weights between layer n and layer n + 1 are stored in one flat array, weights[n], in the same
+ * row-major layout AB1_Net uses: the weight from node k of layer n to node j of layer n + 1 is at
+ * weights[n][j * numActs[n] + k]. Every activation and psi buffer is allocated once in allocate_train or
+ * allocate_run, so run and train allocate nothing.
+ *
+ * Methods:
+ *    main: initializes instance of N_Net class and calls functions to either run or train the network.
+ *    parametrize: set parametrization values (the network parameters are hardcoded inside the function).
+ *    echoparams: prints out the network parameters set in the parametrize function.
+ *    allocate_train: allocates the arrays used when training the network.
+ *    allocate_run: allocates the arrays used when running the network.
+ *    populateCases: populates the input and expected output cases.
+ *    populateRandom: randomly populates weights in the range (minRand, maxRand) from the network's own
+ *       random number generator, seeded with seed.
+ *    train: trains the network using gradient descent.
+ *    trainCase: runs one case forward and backward and updates the weights.
+ *    run: takes in input and runs the network based on its current weights.
+ *    reportResults: prints out the network's predictions for each case.
+ */
+import java.util.SplittableRandom;
+
+public class N_Net
+{
+   /*
+    * Variables for initializing model state and parameters.
+    *
+    * training: which mode the model is in; if true, it's training. if false, it's running.
+    *
+    * nLayers: number of layers in the model, including the input and output layers.
+    * numActs: configuration number of activations in each layer.
+    * nCases: number of cases for training or running the model.
+    * maxIter: maximum number of iterations the model can go through before exiting training.
+    *
+    * minRand: minimum value when generating random values.
+    * maxRand: maximum value when generating random values.
+    * seed: seed of the random number generator used by populateRandom. printed by echoparams, so setting
+    *    seed to a printed value reproduces that run's starting weights exactly.
+    * lambda: size of 'step' model takes when updating weights in gradient descent.
+    * maxError: error limit; when training, model will exit if its error <= maxError.
+    * useVector: if true, theta accumulation uses the Vector API kernel when it is available.
+    *
+    * inputs: input data for the network, one case per row.
+    * outputs: the expected model outputs, one case per row.
+    */
+   boolean training, useVector;
+   int nLayers, nCases, maxIter;
+   int[] numActs;
+   long seed;
+   double minRand, maxRand, lambda, maxError;
+
+   double[][] inputs, outputs;
+
+   /*
+    * acts: activations of each layer; acts[0] holds a copy of the current input.
+    * psi: psi values of each layer, used in training.
+    * omegas: omega values of the layer currently being backpropagated into, used in training.
+    * weights: weights[n] holds the weights between layer n and layer n + 1.
+    *
+    * random: the network's random number generator, created from seed by populateRandom.
+    *
+    * iteration: the number of iterations the model has gone through.
+    * avgErr: the average model error within an iteration.
+    */
+   double[][] acts, psi, weights;
+   double[] omegas;
+
+   SplittableRandom random;
+
+   int iteration;
+   double avgErr;
+
+   /*
+    * Main method. Parametrizes the network, allocates space, populates the cases and weights, then
+    *    trains or runs and reports the results.
+    *
+    * @param String[] args -- command line arguments
+    */
+   public static void main(String[] args)
+   {
+      N_Net net = new N_Net();
+
+      net.parametrize();
+      net.echoparams();
+
+      if (net.training)
+      {
+         net.allocate_train();
+      }
+      else
+      {
+         net.allocate_run();
+      }
+
+      net.populateCases();
+      net.populateRandom();
+
+      if (net.training)
+      {
+         net.train(net.inputs, net.outputs);
+         System.out.println("Total number of iterations: " + net.iteration);
+         System.out.println("Average error: " + net.avgErr);
+      }
+
+      net.reportResults(net.inputs, net.outputs);
+   } // public static void main(String[] args)
+
+   /*
+    * Defines basic parameters of the model. The default is a 2-5-3 network learning AND, OR and XOR.
+    */
+   public void parametrize()
+   {
+      training = true;
+      useVector = true;
+
+      numActs = new int[]{2, 5, 3};
+      nLayers = numActs.length;
+
+      nCases = 4;
+
+      minRand = -1.5;
+      maxRand = 1.5;
+      seed = System.nanoTime();
+
+      maxIter = 100000;
+      lambda = 0.3;
+      maxError = 2E-4;
+   } // public void parametrize()
+
+   /*
+    * Prints out the node configuration and, if training, the training parameters.
+    */
+   public void echoparams()
+   {
+      System.out.print(nLayers + " layer network with the following node configuration: ");
+
+      for (int layer = 0; layer < nLayers - 1; layer++)
+      {
+         System.out.print(numActs[layer] + "-");
+      }
+      System.out.println(numActs[nLayers - 1]);
+
+      if (training)
+      {
+         System.out.println("Model is in training mode on " + nCases + " cases.");
+         System.out.println("Weights randomized from the range " + minRand + " to " + maxRand);
+         System.out.println("Random seed: " + seed);
+         System.out.println("Lambda: " + lambda);
+         System.out.println("Error Threshold: " + maxError);
+         System.out.println("Max number of iterations is: " + maxIter);
+      }
+      else
+      {
+         System.out.println("Model is in running mode on " + nCases + " cases.");
+      }
+   } // public void echoparams()
+
+   /*
+    * Allocates the arrays needed for running: the cases, the weights and one activation array per layer.
+    */
+   public void allocate_run()
+   {
+      inputs = new double[nCases][numActs[0]];
+      outputs = new double[nCases][numActs[nLayers - 1]];
+
+      acts = new double[nLayers][];
+      weights = new double[nLayers - 1][];
+
+      for (int n = 0; n < nLayers; n++)
+      {
+         acts[n] = new double[numActs[n]];
+      }
+
+      for (int n = 0; n < nLayers - 1; n++)
+      {
+         weights[n] = new double[numActs[n + 1] * numActs[n]];
+      }
+   } // public void allocate_run()
+
+   /*
+    * Allocates the arrays needed for training: everything allocate_run allocates, plus the psi array for
+    *    every layer after the input layer and one omega array as wide as the widest layer.
+    */
+   public void allocate_train()
+   {
+      int widest = 0;
+
+      allocate_run();
+
+      psi = new double[nLayers][];
+
+      for (int n = 1; n < nLayers; n++)
+      {
+         psi[n] = new double[numActs[n]];
+         widest = Math.max(widest, numActs[n]);
+      }
+
+      omegas = new double[widest];
+   } // public void allocate_train()
+
+   /*
+    * Populates the cases: the four two-bit inputs, with AND, OR and XOR as the expected outputs.
+    */
+   public void populateCases()
+   {
+      for (int case_ = 0; case_ < nCases; case_++)
+      {
+         inputs[case_][0] = (case_ >> 1) & 1;
+         inputs[case_][1] = case_ & 1;
+
+         outputs[case_][0] = inputs[case_][0] * inputs[case_][1];
+         outputs[case_][1] = Math.max(inputs[case_][0], inputs[case_][1]);
+         outputs[case_][2] = (inputs[case_][0] != inputs[case_][1]) ? 1.0 : 0.0;
+      }
+   } // public void populateCases()
+
+   /*
+    * Randomly populates every weight with a value in the range (minRand, maxRand), from a generator of
+    *    the network's own seeded with seed.
+    */
+   public void populateRandom()
+   {
+      random = new SplittableRandom(seed);
+
+      for (int n = 0; n < nLayers - 1; n++)
+      {
+         for (int ind = 0; ind < weights[n].length; ind++)
+         {
+            weights[n][ind] = (maxRand - minRand) * random.nextDouble() + minRand;
+         }
+      }
+   } // public void populateRandom()
+
+   /*
+    * Trains the network using gradient descent, updating the weights after every case, until avgErr
+    *    reaches maxError or maxIter iterations have run.
+    *
+    * @param inputs: input data used to train network
+    * @param outputs: expected outputs for network
+    */
+   public void train(double[][] inputs, double[][] outputs)
+   {
+      iteration = 0;
+      avgErr = 0.0;
+
+      while ((iteration == 0) || ((iteration < maxIter) && (avgErr > maxError)))
+      {
+         avgErr = 0.0;
+
+         for (int case_ = 0; case_ < inputs.length; case_++)
+         {
+            avgErr += trainCase(inputs[case_], outputs[case_]);
+         }
+
+         avgErr /= inputs.length;
+         iteration++;
+      } // while ((iteration == 0) || ((iteration < maxIter) && (avgErr > maxError)))
+
+      if (iteration >= maxIter)
+      {
+         System.out.println("Reached max iterations allowed for training.");
+      }
+      else
+      {
+         System.out.println("Reached desired error value.");
+      }
+   } // public void train(double[][] inputs, double[][] outputs)
+
+   /*
+    * Runs one case forward, then backpropagates from the output layer to the first hidden layer. For
+    *    each pair of layers n and n + 1, a single pass over the rows of weights[n] both accumulates the
+    *    omegas of layer n (from the weights before they change) and applies the weight updates, so no
+    *    gradient arrays are needed.
+    *
+    * @param input: input data for the case
+    * @param expected: expected outputs for the case
+    *
+    * @return the case's error, the sum of omega^2 / 2 over the output layer
+    */
+   public double trainCase(double[] input, double[] expected)
+   {
+      int out = nLayers - 1, row, cols;
+      double omega, error = 0.0, psi_i;
+      double[] w, prev;
+
+      // forward pass, keeping the activations of every layer for the backward pass
+      run(input);
+
+      // psi of the output layer
+      for (int i = 0; i < numActs[out]; i++)
+      {
+         omega = expected[i] - acts[out][i];
+         error += (omega * omega) / 2.0;
+         psi[out][i] = omega * AB1_Net.derive_sigmoid_act(acts[out][i]);
+      }
+
+      // backward pass: update weights[n] and, for hidden layers, compute psi[n]
+      for (int n = out - 1; n >= 0; n--)
+      {
+         w = weights[n];
+         prev = acts[n];
+         cols = numActs[n];
+
+         for (int j = 0; j < cols; j++)
+         {
+            omegas[j] = 0.0;
+         }
+
+         for (int i = 0; i < numActs[n + 1]; i++)
+         {
+            row = i * cols;
+            psi_i = psi[n + 1][i];
+
+            if (n > 0) // accumulate omegas from the old weights, then update them
+            {
+               for (int j = 0; j < cols; j++)
+               {
+                  omegas[j] += psi_i * w[row + j];
+                  w[row + j] += lambda * prev[j] * psi_i;
+               }
+            }
+            else       // the input layer needs no omegas
+            {
+               for (int j = 0; j < cols; j++)
+               {
+                  w[row + j] += lambda * prev[j] * psi_i;
+               }
+            }
+         } // for (int i = 0; i < numActs[n + 1]; i++)
+
+         if (n > 0) // the input layer has no psi
+         {
+            for (int j = 0; j < cols; j++)
+            {
+               psi[n][j] = omegas[j] * AB1_Net.derive_sigmoid_act(prev[j]);
+            }
+         }
+      } // for (int n = out - 1; n >= 0; n--)
+
+      return error;
+   } // public double trainCase(double[] input, double[] expected)
+
+   /*
+    * Runs the network on input. The result is the output layer's activation array, which is reused by
+    *    the next call, so callers that keep it must copy it.
+    *
+    * @param input: data for model to make predictions on
+    *
+    * @return the activations of the output layer
+    */
+   public double[] run(double[] input)
+   {
+      System.arraycopy(input, 0, acts[0], 0, numActs[0]);
+
+      for (int n = 1; n < nLayers; n++)
+      {
+         for (int j = 0; j < numActs[n]; j++)
+         {
+            acts[n][j] = AB1_Net.sigmoid(AB1_Net.dot(acts[n - 1], weights[n - 1], j * numActs[n - 1],
+                  numActs[n - 1], useVector));
+         }
+      } // for (int n = 1; n < nLayers; n++)
+
+      return acts[nLayers - 1];
+   } // public double[] run(double[] input)
+
+   /*
+    * Prints the network's predictions and the expected outputs for every case.
+    *
+    * @param inputs: input data to make predictions on
+    * @param expected_outputs: the expected outputs for each case
+    */
+   public void reportResults(double[][] inputs, double[][] expected_outputs)
+   {
+      double[] predicted;
+
+      for (int case_ = 0; case_ < inputs.length; case_++)
+      {
+         predicted = run(inputs[case_]);
+
+         System.out.print("Input:");
+         for (int in = 0; in < inputs[case_].length; in++)
+         {
+            System.out.print(" " + inputs[case_][in]);
+         }
+
+         System.out.print("  Output:");
+         for (int i = 0; i < predicted.length; i++)
+         {
+            System.out.print(" " + predicted[i]);
+         }
+
+         System.out.print("  Expected Output:");
+         for (int i = 0; i < expected_outputs[case_].length; i++)
+         {
+            System.out.print(" " + expected_outputs[case_][i]);
+         }
+         System.out.println();
+      } // for (int case_ = 0; case_ < inputs.length; case_++)
+   } // public void reportResults(double[][] inputs, double[][] expected_outputs)
+
+} // public class N_Net
@@ -13,12 +13,29 @@
 *       merge(Comparable[] a, int lowIndex, int midIndex, int highIndex)
 *       partition(Comparable[] a, int lowIndex, int highIndex)
 *       quicksortHelp(Comparable[] a, int lowIndex, int highIndex)
+*       quicksortHelp(Comparable[] a, int lowIndex, int highIndex,
+*                       int depthLimit)
+*       choosePivot(Comparable[] a, int lowIndex, int highIndex)
+*       medianOfThree(Comparable[] a, int i, int j, int k)
+*       insertionSortRange(Comparable[] a, int lowIndex, int highIndex)
+*       heapsortRange(Comparable[] a, int lowIndex, int highIndex)
+*       siftDown(Comparable[] a, int lowIndex, int root, int size)
+*       swap(Comparable[] a, int i, int j)
 * @author Anu Datar
 * @author Melody Yin
 * @version 2-24-22
 */
 public class Sorter
 {
+    /**
+     * INSERTION_CUTOFF: ranges with this many elements or fewer are sorted
+     *      with insertion sort instead of being partitioned further.
+     * NINTHER_CUTOFF: ranges with more elements than this pick their pivot
+     *      with Tukey's ninther instead of a median of three.
+     */
+    private static final int INSERTION_CUTOFF = 16;
+    private static final int NINTHER_CUTOFF = 40;
+
     private SortDisplay display;
     
     /**
@@ -289,12 +306,17 @@ public class Sorter
      * just calls quicksortHelp with parameters (a, 0, a.length-1),
      * which does the actual quick sorting
      * 
+     * The sort is an introsort: quicksort with a three-way partition, 
+     * finished off by insertion sort on small ranges, which switches to 
+     * heapsort on any range where the recursion gets too deep. It sorts in 
+     * place in O(n log n) time even in the worst case. It is not stable.
+     * 
      * Postcondition: a[lowIndex] to a[highIndex] are in increasing order
      * @param a - array of comparable elements to be sorted with quick sort
      */
     public void quicksort(Comparable[] a)
     {
-        /* To be implemented post the AP Exam */
+        quicksortHelp(a, 0, a.length - 1);
     }
 
     /**
@@ -302,18 +324,16 @@ public class Sorter
      * Usage: quicksortHelp(a, low, high)
      * ------------------------------------------
      * Quick sorting is a recursive sorting algorithm that sets a pivot point
-     *      (lowIndex in this case) and calls partition which performs rough 
-     *      sort: puts every element less than pivot left of pivot, and every 
-     *      element bigger than pivot right of pivot. Then, quicksortHelp is 
-     *      called on the sections left & right of the pivot point
-     * Base case: section of the array given by low & highIndex has 1 element
-     *         (high <= low), which is "sorted" by definition. Therefore, 
-     *         nothing is done to it.
-     * Recursive reduction: the element at lowIndex is sorted as the pivot 
-     *         using partition() and the index where it lands is returned.
-     *         The array is then divided from (low,pivot-1) & (pivot+1,high)
-     *         because index pivot is already sorted, and quicksortHelp is 
-     *         used again on sections left & right of the pivot element.
+     *      and calls partition which performs rough sort: puts every element
+     *      less than pivot left of pivot, every element equal to the pivot 
+     *      next to it, and every element bigger than pivot right of them. 
+     *      Then, quicksortHelp is called on the sections left & right of the
+     *      elements equal to the pivot.
+     * This method only sets the recursion depth limit, 2 * floor(log2(n))
+     *      for a section of n elements, and calls the four-argument 
+     *      quicksortHelp, which does the sorting. Randomly ordered arrays 
+     *      never come close to the limit; a section that reaches it is 
+     *      being split badly on every pass, and is heapsorted instead.
      * 
      * Postcondition: a[lowIndex] to a[highIndex] are in increasing order
      * @param a - array of comparable elements to be sorted with quick sort
@@ -322,31 +342,303 @@ public class Sorter
      */
     private void quicksortHelp(Comparable[] a, int lowIndex, int highIndex)
     {   
-        /* To be implemented post the AP Exam */
+        int size = highIndex - lowIndex + 1;
+
+        if (size > 1)
+        {
+            quicksortHelp(a, lowIndex, highIndex, 
+                            2 * (31 - Integer.numberOfLeadingZeros(size)));
+        }
+    }
+
+    /**
+     * Method: quicksortHelp()
+     * Usage: quicksortHelp(a, low, high, depthLimit)
+     * ------------------------------------------
+     * Sorts a section of the array with introsort.
+     * Base case: the section has INSERTION_CUTOFF elements or fewer, and is 
+     *         sorted with insertion sort, which is faster than partitioning
+     *         on so few elements. If depthLimit has run out, the section is
+     *         sorted with heapsort, which is O(n log n) however the 
+     *         elements are ordered.
+     * Recursive reduction: partition() places the elements equal to the 
+     *         pivot in their final positions, between the smaller and the
+     *         bigger elements. The smaller of the two remaining sections is
+     *         sorted recursively and the larger one by looping, so the stack
+     *         never holds more than log2(n) calls.
+     * 
+     * Postcondition: a[lowIndex] to a[highIndex] are in increasing order
+     * @param a - array of comparable elements to be sorted with quick sort
+     * @param lowIndex - beginning index of section of array to be sorted
+     * @param highIndex - ending index of section of array to be sorted
+     * @param depthLimit - number of partitions that may still be made on the
+     *          way down to any element before switching to heapsort
+     */
+    private void quicksortHelp(Comparable[] a, int lowIndex, int highIndex,
+                                int depthLimit)
+    {
+        while (highIndex - lowIndex + 1 > INSERTION_CUTOFF)
+        {
+            if (depthLimit == 0)
+            {
+                heapsortRange(a, lowIndex, highIndex);
+                return;
+            }
+            depthLimit--;
+
+            // a[lowEqual] to a[highEqual] are equal to the pivot
+            int[] equal = partition(a, lowIndex, highIndex);
+            int lowEqual = equal[0];
+            int highEqual = equal[1];
+
+            if (lowEqual - lowIndex < highIndex - highEqual)
+            {
+                quicksortHelp(a, lowIndex, lowEqual - 1, depthLimit);
+                lowIndex = highEqual + 1;
+            }
+            else
+            {
+                quicksortHelp(a, highEqual + 1, highIndex, depthLimit);
+                highIndex = lowEqual - 1;
+            }
+        }
+
+        insertionSortRange(a, lowIndex, highIndex);
     }
     
     /**
     * Method partition
-    * Usuage: int pivotIndex = partition(a, lowIndex, highIndex)
+    * Usuage: int[] equal = partition(a, lowIndex, highIndex)
     *___________________________________________________________
     *
-    *Returns the index of the pivot element defined as follows:
+    *Returns the indices of the pivot elements defined as follows:
     *                All elements on the left side of the pivot (from lowIndex)
     *                are less than or equal to the pivot.
     *                All elements on the right side of the pivot 
     *                   (through highIndex) are greater than or equal to the
     *                   pivot.
     * The computation is performed in place.
+    * 
+    * The pivot is picked by choosePivot and swapped to lowIndex. The section
+    * is then split three ways in a single pass (Dijkstra's Dutch national 
+    * flag): everything less than the pivot goes to the left, everything
+    * greater to the right, and every element equal to the pivot ends up in
+    * one run next to it. Both ends of that run are returned, so the 
+    * elements left of it are strictly less than the pivot, the elements
+    * right of it strictly greater, and the run is never scanned again.
+    * Sections with many equal keys shrink by the whole run on every pass
+    * instead of by one element.
     * @param a the array to partion
     * @param lowIndex is the index of the start of the part of array a to
     *       consider
     * @param highIndex is the index of the end of the part of array a to 
     *       consider
-    * @return the index of the pivot element in array a
+    * @return the first and last index of the elements equal to the pivot
     */
-    private int partition(Comparable[] a, int lowIndex, int highIndex)
+    private int[] partition(Comparable[] a, int lowIndex, int highIndex)
+    {
+        swap(a, lowIndex, choosePivot(a, lowIndex, highIndex));
+
+        Comparable pivot = a[lowIndex];
+        int less = lowIndex;        // a[lowIndex] to a[less - 1] < pivot
+        int greater = highIndex;    // a[greater + 1] to a[highIndex] > pivot
+        int i = lowIndex + 1;       // a[less] to a[i - 1] == pivot
+
+        while (i <= greater)
+        {
+            int cmp = a[i].compareTo(pivot);
+            if (cmp < 0)
+            {
+                swap(a, less, i);
+                less++;
+                i++;
+            }
+            else if (cmp > 0)
+            {
+                swap(a, i, greater);
+                greater--;
+            }
+            else
+            {
+                i++;
+            }
+        }
+        display.update();
+        return new int[] {less, greater};
+    }
+
+    /**
+     * Method: choosePivot()
+     * Usage: int pivotIndex = choosePivot(a, lowIndex, highIndex)
+     * ------------------------------------------
+     * Picks the pivot for partition(). Sections of up to NINTHER_CUTOFF 
+     *      elements use the median of the first, middle and last elements.
+     *      Larger sections use Tukey's ninther, the median of the medians of
+     *      three groups of three elements spread across the section, which
+     *      lands closer to the true median and keeps sorted, reverse-sorted
+     *      and organ-pipe arrays from splitting badly.
+     * @param a the array being sorted
+     * @param lowIndex is the index of the start of the section
+     * @param highIndex is the index of the end of the section
+     * @return the index of the element to use as the pivot
+     */
+    private int choosePivot(Comparable[] a, int lowIndex, int highIndex)
+    {
+        int size = highIndex - lowIndex + 1;
+        int mid = lowIndex + size / 2;
+
+        if (size <= NINTHER_CUTOFF)
+        {
+            return medianOfThree(a, lowIndex, mid, highIndex);
+        }
+
+        int step = size / 8;
+        int low = medianOfThree(a, lowIndex, lowIndex + step, 
+                                lowIndex + 2 * step);
+        int middle = medianOfThree(a, mid - step, mid, mid + step);
+        int high = medianOfThree(a, highIndex - 2 * step, highIndex - step,
+                                highIndex);
+        return medianOfThree(a, low, middle, high);
+    }
+
+    /**
+     * Method: medianOfThree()
+     * Usage: int median = medianOfThree(a, i, j, k)
+     * ------------------------------------------
+     * Finds which of three elements is the median, using at most three
+     *      comparisons and without moving any of them.
+     * @param a the array holding the elements
+     * @param i the index of the first element
+     * @param j the index of the second element
+     * @param k the index of the third element
+     * @return whichever of i, j and k holds the median of the three elements
+     */
+    private int medianOfThree(Comparable[] a, int i, int j, int k)
+    {
+        if (a[i].compareTo(a[j]) < 0)
+        {
+            if (a[j].compareTo(a[k]) < 0)
+            {
+                return j;
+            }
+            return (a[i].compareTo(a[k]) < 0) ? k : i;
+        }
+        if (a[k].compareTo(a[j]) < 0)
+        {
+            return j;
+        }
+        return (a[k].compareTo(a[i]) < 0) ? k : i;
+    }
+
+    /**
+     * Method: insertionSortRange()
+     * Usage: insertionSortRange(a, lowIndex, highIndex)
+     * ------------------------------------------
+     * Sorts one section of the array with insertion sort, sliding each 
+     *      element left until the element before it is no larger. Unlike 
+     *      insert(), it stops at lowIndex and prints nothing, since 
+     *      quicksortHelp calls it on every small section.
+     * Postcondition: a[lowIndex] to a[highIndex] are in increasing order
+     * @param a the array being sorted
+     * @param lowIndex is the index of the start of the section
+     * @param highIndex is the index of the end of the section
+     */
+    private void insertionSortRange(Comparable[] a, int lowIndex, 
+                                    int highIndex)
+    {
+        for (int next = lowIndex + 1; next <= highIndex; next++)
+        {
+            Comparable toInsert = a[next];
+            int i = next - 1;
+            while (i >= lowIndex && a[i].compareTo(toInsert) > 0)
+            {
+                a[i + 1] = a[i];
+                i--;
+            }
+            a[i + 1] = toInsert;
+        }
+        display.update();
+    }
+
+    /**
+     * Method: heapsortRange()
+     * Usage: heapsortRange(a, lowIndex, highIndex)
+     * ------------------------------------------
+     * Sorts one section of the array with heapsort, which quicksortHelp 
+     *      falls back on when partitioning goes too deep. The section is 
+     *      first arranged into a max-heap, with the children of the element
+     *      at offset i from lowIndex at offsets 2i + 1 and 2i + 2. Then the
+     *      largest element, at the root, is repeatedly swapped to the end of
+     *      the heap, the heap shrinks by one, and the new root is sifted 
+     *      down to restore the heap.
+     * Postcondition: a[lowIndex] to a[highIndex] are in increasing order
+     * @param a the array being sorted
+     * @param lowIndex is the index of the start of the section
+     * @param highIndex is the index of the end of the section
+     */
+    private void heapsortRange(Comparable[] a, int lowIndex, int highIndex)
+    {
+        int size = highIndex - lowIndex + 1;
+
+        for (int root = size / 2 - 1; root >= 0; root--)
+        {
+            siftDown(a, lowIndex, root, size);
+        }
+
+        for (int end = size - 1; end > 0; end--)
+        {
+            swap(a, lowIndex, lowIndex + end);
+            siftDown(a, lowIndex, 0, end);
+            display.update();
+        }
+    }
+
+    /**
+     * Method: siftDown()
+     * Usage: siftDown(a, lowIndex, root, size)
+     * ------------------------------------------
+     * Moves the element at offset root of a heap down, swapping it with its
+     *      larger child, until neither child is larger than it.
+     * @precondition the subtrees below root are already max-heaps
+     * @param a the array holding the heap
+     * @param lowIndex is the index of the heap's root in a
+     * @param root is the offset from lowIndex of the element to sift down
+     * @param size is the number of elements in the heap
+     */
+    private void siftDown(Comparable[] a, int lowIndex, int root, int size)
+    {
+        int child = 2 * root + 1;
+
+        while (child < size)
+        {
+            if (child + 1 < size 
+                && a[lowIndex + child].compareTo(a[lowIndex + child + 1]) < 0)
+            {
+                child++;
+            }
+            if (a[lowIndex + root].compareTo(a[lowIndex + child]) >= 0)
+            {
+                return;
+            }
+            swap(a, lowIndex + root, lowIndex + child);
+            root = child;
+            child = 2 * root + 1;
+        }
+    }
+
+    /**
+     * Method: swap()
+     * Usage: swap(a, i, j)
+     * ------------------------------------------
+     * Swaps two elements of the array.
+     * @param a the array holding the elements
+     * @param i the index of the first element
+     * @param j the index of the second element
+     */
+    private void swap(Comparable[] a, int i, int j)
     {
-        /* To be implemented post the AP Exam */
-        return -1;
+        Comparable temp = a[i];
+        a[i] = a[j];
+        a[j] = temp;
     }
 }
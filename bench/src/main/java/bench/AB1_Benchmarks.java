@@ -0,0 +1,235 @@
+/*
+ * JMH benchmarks for the hot paths of AB1_Net: single-case inference latency (run), batch inference
+ * throughput (runBatch) and training throughput in epochs per second (train), across a range of node
+ * configurations. Run with -prof gc to see the allocation rate of each path; run, runBatch and train
+ * should all report close to 0 bytes per operation once warmed up.
+ *
+ * JMH does not allow benchmarks in the default package, and classes in a named package cannot refer to
+ * AB1_Net by name, so the network is created and configured through reflection in setup and its methods
+ * are called through static final method handles, which the JIT inlines like direct calls.
+ *
+ * Methods:
+ *    setup: builds and randomly populates a network and a batch of random cases for the trial.
+ *    restoreOut: restores System.out after the trial.
+ *    runSingle: one call to run.
+ *    runBatch: one call to runBatch on BATCH_CASES cases.
+ *    trainEpoch: one training epoch over BATCH_CASES cases.
+ *    set: sets a field of the network.
+ *    get: reads a field of the network.
+ */
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AB1_Benchmarks
+{
+   /*
+    * BATCH_CASES: number of cases in the batch used by runBatch and trainEpoch.
+    *
+    * NET: the AB1_Net class.
+    * RUN, RUN_BATCH, TRAIN: handles to AB1_Net.run, runBatch and train(double[][], double[]), with the
+    *    receiver typed as Object so they can be called with invokeExact.
+    */
+   static final int BATCH_CASES = 1024;
+
+   static final Class<?> NET;
+   static final MethodHandle RUN, RUN_BATCH, TRAIN;
+
+   static
+   {
+      try
+      {
+         MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+         NET = Class.forName("AB1_Net");
+
+         RUN = lookup.findVirtual(NET, "run", MethodType.methodType(double.class, double[].class))
+               .asType(MethodType.methodType(double.class, Object.class, double[].class));
+         RUN_BATCH = lookup.findVirtual(NET, "runBatch",
+               MethodType.methodType(void.class, double[][].class, double[].class))
+               .asType(MethodType.methodType(void.class, Object.class, double[][].class, double[].class));
+         TRAIN = lookup.findVirtual(NET, "train",
+               MethodType.methodType(void.class, double[][].class, double[].class))
+               .asType(MethodType.methodType(void.class, Object.class, double[][].class, double[].class));
+      }
+      catch (ReflectiveOperationException e)
+      {
+         throw new ExceptionInInitializerError(e);
+      }
+   } // static
+
+   /*
+    * layers: node configuration as A-B-1.
+    * batchSize: mini-batch size used by trainEpoch.
+    * useVector: whether theta accumulation uses the Vector API kernel.
+    * useTableSigmoid: whether activations use the lookup table sigmoid.
+    */
+   @Param({"2-2-1", "64-64-1", "256-256-1", "784-256-1"})
+   String layers;
+
+   @Param({"32"})
+   int batchSize;
+
+   @Param({"true", "false"})
+   boolean useVector;
+
+   @Param({"false", "true"})
+   boolean useTableSigmoid;
+
+   Object net;
+   double[] input, outputs, out;
+   double[][] inputs;
+   PrintStream stdout;
+
+   /*
+    * Builds a network with the configuration in layers, populates its weights randomly and generates
+    *    BATCH_CASES random cases. maxIter is 1, so each call to train runs exactly one epoch. Telemetry
+    *    is turned off so that trainEpoch measures training alone, and System.out is silenced because
+    *    train prints a message every time it stops.
+    */
+   @Setup(Level.Trial)
+   public void setup() throws ReflectiveOperationException
+   {
+      String[] sizes = layers.split("-");
+      int[] numActs = {Integer.parseInt(sizes[0]), Integer.parseInt(sizes[1]), Integer.parseInt(sizes[2])};
+      SplittableRandom random = new SplittableRandom(42);
+
+      net = NET.getConstructor().newInstance();
+      NET.getMethod("parametrize").invoke(net);
+
+      set("training", true);
+      set("telemetry", null);
+      set("useVector", useVector);
+      set("useTableSigmoid", useTableSigmoid);
+      set("numActs", numActs);
+      set("nCases", BATCH_CASES);
+      set("nInEachInput", numActs[0]);
+      set("minRand", -1.5);
+      set("maxRand", 1.5);
+      set("lambda", 0.3);
+      set("maxError", 0.0);
+      set("maxIter", 1);
+      set("batchSize", batchSize);
+      set("nThreads", 1);
+
+      NET.getMethod("allocate_train").invoke(net);
+      NET.getMethod("populateRandom").invoke(net);
+
+      inputs = (double[][]) get("inputs");
+      outputs = (double[]) get("outputs");
+      out = new double[BATCH_CASES];
+
+      for (int case_ = 0; case_ < BATCH_CASES; case_++)
+      {
+         for (int k = 0; k < numActs[0]; k++)
+         {
+            inputs[case_][k] = random.nextDouble();
+         }
+         outputs[case_] = random.nextDouble();
+      }
+
+      input = inputs[0];
+
+      stdout = System.out;
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+   } // public void setup()
+
+   /*
+    * Restores System.out after the trial.
+    */
+   @TearDown(Level.Trial)
+   public void restoreOut()
+   {
+      System.setOut(stdout);
+   }
+
+   /*
+    * @return the prediction for one case
+    */
+   @Benchmark
+   @BenchmarkMode(Mode.AverageTime)
+   @OutputTimeUnit(TimeUnit.NANOSECONDS)
+   public double runSingle() throws Throwable
+   {
+      return (double) RUN.invokeExact(net, input);
+   }
+
+   /*
+    * Scores BATCH_CASES cases; reported per case.
+    *
+    * @return the predictions
+    */
+   @Benchmark
+   @BenchmarkMode(Mode.Throughput)
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   @OperationsPerInvocation(BATCH_CASES)
+   public double[] runBatch() throws Throwable
+   {
+      RUN_BATCH.invokeExact(net, inputs, out);
+      return out;
+   }
+
+   /*
+    * Trains for one epoch over BATCH_CASES cases; reported in epochs per second.
+    */
+   @Benchmark
+   @BenchmarkMode(Mode.Throughput)
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public void trainEpoch() throws Throwable
+   {
+      TRAIN.invokeExact(net, inputs, outputs);
+   }
+
+   /*
+    * Sets a package-private field of the network.
+    *
+    * @param name: name of the field
+    * @param value: value to set it to
+    */
+   void set(String name, Object value) throws ReflectiveOperationException
+   {
+      Field field = NET.getDeclaredField(name);
+      field.setAccessible(true);
+      field.set(net, value);
+   }
+
+   /*
+    * Reads a package-private field of the network.
+    *
+    * @param name: name of the field
+    *
+    * @return the field's value
+    */
+   Object get(String name) throws ReflectiveOperationException
+   {
+      Field field = NET.getDeclaredField(name);
+      field.setAccessible(true);
+      return field.get(net);
+   }
+
+} // public class AB1_Benchmarks